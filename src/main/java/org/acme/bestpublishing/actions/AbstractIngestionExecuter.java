@@ -19,8 +19,10 @@ package org.acme.bestpublishing.actions;
 import org.acme.bestpublishing.error.ProcessingErrorCode;
 import org.acme.bestpublishing.exceptions.IngestionException;
 import org.acme.bestpublishing.services.AlfrescoRepoUtilsService;
+import org.acme.bestpublishing.services.AlfrescoWorkflowUtilsService;
 import org.acme.bestpublishing.services.BestPubUtilsService;
 import org.acme.bestpublishing.services.IngestionService;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
 import org.alfresco.service.ServiceRegistry;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.apache.commons.io.FilenameUtils;
@@ -29,6 +31,10 @@ import org.springframework.jmx.export.annotation.ManagedAttribute;
 
 import java.io.File;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.acme.bestpublishing.model.BestPubWorkflowModel.BESTPUB_PUBLISHING_WORKFLOW_NAME;
 
 //import org.springframework.jmx.export.annotation.ManagedMetric;
 //import org.springframework.jmx.support.MetricType;
@@ -52,6 +58,7 @@ public abstract class AbstractIngestionExecuter {
     protected BestPubUtilsService bestPubUtilsService;
     protected AlfrescoRepoUtilsService alfrescoRepoUtilsService;
     protected IngestionService ingestionService;
+    protected AlfrescoWorkflowUtilsService alfrescoWorkflowUtilsService;
 
     /**
      * Content Ingestion config
@@ -61,6 +68,13 @@ public abstract class AbstractIngestionExecuter {
     private String cronExpression;
     private int cronStartDelay;
 
+    /**
+     * Workflow signal config, message sent to the publishing workflow when a ZIP has been processed,
+     * and process variable set to true with it (e.g. contentFound). No signal is sent if no message name is set.
+     */
+    private String arrivalMessageName;
+    private String arrivalFoundVariableName;
+
     /**
      * Content Ingestion stats
      */
@@ -103,6 +117,18 @@ public abstract class AbstractIngestionExecuter {
         this.bestPubUtilsService = bestPubUtilsService;
     }
 
+    public void setAlfrescoWorkflowUtilsService(AlfrescoWorkflowUtilsService alfrescoWorkflowUtilsService) {
+        this.alfrescoWorkflowUtilsService = alfrescoWorkflowUtilsService;
+    }
+
+    public void setArrivalMessageName(String arrivalMessageName) {
+        this.arrivalMessageName = arrivalMessageName;
+    }
+
+    public void setArrivalFoundVariableName(String arrivalFoundVariableName) {
+        this.arrivalFoundVariableName = arrivalFoundVariableName;
+    }
+
     /**
      * Managed Properties (JMX)
      */
@@ -183,8 +209,9 @@ public abstract class AbstractIngestionExecuter {
                 }
 
                 if (processZipFile(zipFile, isbn, incomingAlfrescoFolderNodeRef)) {
-                    // All done, delete the ZIP
+                    // All done, delete the ZIP and tell the waiting workflow
                     zipFile.delete();
+                    signalArrival(isbn);
                 } else {
                     // Something went wrong when processing the zip file,
                     // move it to a directory for ZIPs that failed processing
@@ -199,4 +226,33 @@ public abstract class AbstractIngestionExecuter {
             getLog().error("Encountered an error when ingesting " + ingestionType + " - exiting", e);
         }
     }
+
+    /**
+     * Signal the publishing workflow for the ISBN that its ZIP has been processed, so it continues straight away
+     * instead of waiting for its timer to check. The signal is sent in its own transaction, and if it fails
+     * it is only logged, the fallback timer in the workflow will then pick up the ingested content.
+     *
+     * @param isbn the ISBN for the processed ZIP
+     */
+    protected void signalArrival(final String isbn) {
+        if (arrivalMessageName == null || arrivalMessageName.isEmpty() || alfrescoWorkflowUtilsService == null) {
+            return;
+        }
+
+        final Map<String, Object> variables = new HashMap<>();
+        if (arrivalFoundVariableName != null && !arrivalFoundVariableName.isEmpty()) {
+            variables.put(arrivalFoundVariableName, Boolean.TRUE);
+        }
+        try {
+            AlfrescoWorkflowUtilsService.SignalDelivery signalDelivery = AuthenticationUtil.runAsSystem(() ->
+                    serviceRegistry.getRetryingTransactionHelper().doInTransaction(() ->
+                            alfrescoWorkflowUtilsService.signalWorkflowForIsbn(BESTPUB_PUBLISHING_WORKFLOW_NAME,
+                                    isbn, arrivalMessageName, variables), false, true));
+            getLog().debug("Signalled workflow for ISBN [{}] with [{}]: {}",
+                    new Object[]{isbn, arrivalMessageName, signalDelivery});
+        } catch (RuntimeException e) {
+            getLog().warn("Could not signal workflow for ISBN [" + isbn + "] with [" + arrivalMessageName +
+                    "], leaving it to the workflow timer", e);
+        }
+    }
  }
@@ -0,0 +1,195 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.actions;
+
+import org.acme.bestpublishing.model.BestPubUtilsModel.ContentFingerprintAspect;
+import org.acme.bestpublishing.services.ContentFingerprintService;
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Scheduled executer that back-fills content fingerprints for files that were created
+ * before fingerprints were computed when content is written. Each batch is done in its own transaction.
+ * <p>
+ * Files are paged through in node DB id order, with the DB id of the last file seen as cursor, so files
+ * that are skipped (locked) or that the index still reports as without fingerprint are not picked up
+ * again until the next pass. The cursor is kept between runs, and a new pass starts when there are
+ * no more files after the cursor.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+public class ContentFingerprintBackfillExecuter {
+    private static final Logger LOG = LoggerFactory.getLogger(ContentFingerprintBackfillExecuter.class);
+
+    /**
+     * Alfresco Services
+     */
+    private ServiceRegistry serviceRegistry;
+
+    /**
+     * Best Pub Specific services
+     */
+    private ContentFingerprintService contentFingerprintService;
+
+    /**
+     * Back-fill config
+     */
+    private int batchSize;
+    private int maxBatchesPerRun;
+    private String cronExpression;
+    private int cronStartDelay;
+
+    /**
+     * Back-fill stats
+     */
+    private Date lastRunTime;
+    private long numberOfRuns;
+    private long numberOfFingerprintsComputed;
+
+    /**
+     * Node DB id of the last file looked at, the back-fill continues after it on next run
+     */
+    private volatile long lastNodeDbId;
+
+    /**
+     * Spring Dependency Injection
+     */
+    public void setServiceRegistry(ServiceRegistry serviceRegistry) {
+        this.serviceRegistry = serviceRegistry;
+    }
+
+    public void setContentFingerprintService(ContentFingerprintService contentFingerprintService) {
+        this.contentFingerprintService = contentFingerprintService;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setMaxBatchesPerRun(int maxBatchesPerRun) {
+        this.maxBatchesPerRun = maxBatchesPerRun;
+    }
+
+    public void setCronExpression(String cronExpression) {
+        this.cronExpression = cronExpression;
+    }
+
+    public void setCronStartDelay(int cronStartDelay) {
+        this.cronStartDelay = cronStartDelay;
+    }
+
+    /**
+     * Managed Properties (JMX)
+     */
+    @ManagedAttribute(description = "Cron expression controlling execution")
+    public String getCronExpression() {
+        return this.cronExpression;
+    }
+
+    @ManagedAttribute(description = "Back-fill start delay after bootstrap (ms)")
+    public int getCronStartDelay() {
+        return this.cronStartDelay;
+    }
+
+    @ManagedAttribute(description = "Last time it was called")
+    public Date getLastRunTime() {
+        return this.lastRunTime;
+    }
+
+    @ManagedAttribute(description = "Number of times it has run")
+    public long getNumberOfRuns() {
+        return this.numberOfRuns;
+    }
+
+    @ManagedAttribute(description = "Number of fingerprints computed")
+    public long getNumberOfFingerprintsComputed() {
+        return this.numberOfFingerprintsComputed;
+    }
+
+    @ManagedAttribute(description = "Node DB id of the last file looked at in the current pass")
+    public long getLastNodeDbId() {
+        return this.lastNodeDbId;
+    }
+
+    /**
+     * Executer implementation
+     */
+    public void execute() {
+        LOG.debug("Back-filling content fingerprints...");
+
+        // Running stats
+        lastRunTime = new Date();
+        numberOfRuns++;
+
+        final RetryingTransactionHelper txnHelper = serviceRegistry.getRetryingTransactionHelper();
+        AuthenticationUtil.runAsSystem(() -> {
+            for (int batchNr = 0; batchNr < maxBatchesPerRun; batchNr++) {
+                final List<NodeRef> files = txnHelper.doInTransaction(
+                        () -> contentFingerprintService.findFilesWithoutFingerprint(lastNodeDbId, batchSize),
+                        true, true);
+                if (files.isEmpty()) {
+                    LOG.debug("Back-fill pass completed at node DB id [{}]", lastNodeDbId);
+                    lastNodeDbId = 0;
+                    break;
+                }
+
+                final long[] batchLastNodeDbId = {lastNodeDbId};
+                int computedInBatch = txnHelper.doInTransaction(() -> {
+                    int computed = 0;
+                    for (NodeRef file : files) {
+                        if (!serviceRegistry.getNodeService().exists(file)) {
+                            continue;
+                        }
+                        Long nodeDbId = (Long) serviceRegistry.getNodeService().getProperty(
+                                file, ContentModel.PROP_NODE_DBID);
+                        if (nodeDbId != null && nodeDbId > batchLastNodeDbId[0]) {
+                            batchLastNodeDbId[0] = nodeDbId;
+                        }
+                        if (serviceRegistry.getNodeService().hasAspect(file, ContentFingerprintAspect.QNAME)) {
+                            // Already done, index has not caught up yet
+                            continue;
+                        }
+                        if (contentFingerprintService.backfillFingerprint(file)) {
+                            computed++;
+                        }
+                    }
+                    return computed;
+                }, false, true);
+
+                numberOfFingerprintsComputed += computedInBatch;
+                LOG.debug("Back-filled fingerprints for [{}] of [{}] files", computedInBatch, files.size());
+
+                if (batchLastNodeDbId[0] == lastNodeDbId) {
+                    // Only deleted files in the batch, index is behind, try again next run
+                    break;
+                }
+                lastNodeDbId = batchLastNodeDbId[0];
+            }
+            return null;
+        });
+    }
+}
@@ -0,0 +1,197 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.actions;
+
+import org.acme.bestpublishing.services.WorkflowArchiveService;
+import org.alfresco.repo.lock.JobLockService;
+import org.alfresco.repo.lock.LockAcquisitionException;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scheduled executer that archives completed workflow instances older than a max age into the per-ISBN
+ * workflow archive, and deletes them from the Activiti history tables. Each batch is done in its own transaction.
+ * A cluster wide job lock makes sure only one cluster member archives at a time.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+public class WorkflowHistoryArchivalExecuter {
+    private static final Logger LOG = LoggerFactory.getLogger(WorkflowHistoryArchivalExecuter.class);
+
+    /**
+     * Cluster wide job lock, refreshed after each batch
+     */
+    private static final QName LOCK_QNAME = QName.createQName(NamespaceService.SYSTEM_MODEL_1_0_URI,
+            "org.acme.bestpublishing.workflowHistoryArchival");
+    private static final long LOCK_TTL = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Alfresco Services
+     */
+    private ServiceRegistry serviceRegistry;
+    private JobLockService jobLockService;
+
+    /**
+     * Best Pub Specific services
+     */
+    private WorkflowArchiveService workflowArchiveService;
+
+    /**
+     * Archival config
+     */
+    private String workflowDefinitionName;
+    private int maxAgeDays;
+    private int batchSize;
+    private int maxBatchesPerRun;
+    private String cronExpression;
+    private int cronStartDelay;
+
+    /**
+     * Archival stats
+     */
+    private Date lastRunTime;
+    private long numberOfRuns;
+    private long numberOfWorkflowsArchived;
+
+    /**
+     * Spring Dependency Injection
+     */
+    public void setServiceRegistry(ServiceRegistry serviceRegistry) {
+        this.serviceRegistry = serviceRegistry;
+    }
+
+    public void setJobLockService(JobLockService jobLockService) {
+        this.jobLockService = jobLockService;
+    }
+
+    public void setWorkflowArchiveService(WorkflowArchiveService workflowArchiveService) {
+        this.workflowArchiveService = workflowArchiveService;
+    }
+
+    public void setWorkflowDefinitionName(String workflowDefinitionName) {
+        this.workflowDefinitionName = workflowDefinitionName;
+    }
+
+    public void setMaxAgeDays(int maxAgeDays) {
+        this.maxAgeDays = maxAgeDays;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setMaxBatchesPerRun(int maxBatchesPerRun) {
+        this.maxBatchesPerRun = maxBatchesPerRun;
+    }
+
+    public void setCronExpression(String cronExpression) {
+        this.cronExpression = cronExpression;
+    }
+
+    public void setCronStartDelay(int cronStartDelay) {
+        this.cronStartDelay = cronStartDelay;
+    }
+
+    /**
+     * Managed Properties (JMX)
+     */
+    @ManagedAttribute(description = "Cron expression controlling execution")
+    public String getCronExpression() {
+        return this.cronExpression;
+    }
+
+    @ManagedAttribute(description = "Archival start delay after bootstrap (ms)")
+    public int getCronStartDelay() {
+        return this.cronStartDelay;
+    }
+
+    @ManagedAttribute(description = "Archive completed workflows older than this number of days")
+    public int getMaxAgeDays() {
+        return this.maxAgeDays;
+    }
+
+    @ManagedAttribute(description = "Last time it was called")
+    public Date getLastRunTime() {
+        return this.lastRunTime;
+    }
+
+    @ManagedAttribute(description = "Number of times it has run")
+    public long getNumberOfRuns() {
+        return this.numberOfRuns;
+    }
+
+    @ManagedAttribute(description = "Number of workflows archived")
+    public long getNumberOfWorkflowsArchived() {
+        return this.numberOfWorkflowsArchived;
+    }
+
+    /**
+     * Executer implementation
+     */
+    public void execute() {
+        final String lockToken;
+        try {
+            lockToken = jobLockService.getLock(LOCK_QNAME, LOCK_TTL);
+        } catch (LockAcquisitionException lae) {
+            LOG.debug("Workflow archival is already running on another cluster member [{}]", lae.getMessage());
+            return;
+        }
+
+        LOG.debug("Archiving completed workflows...");
+
+        // Running stats
+        lastRunTime = new Date();
+        numberOfRuns++;
+
+        final Date completedBefore = new Date(lastRunTime.getTime() - TimeUnit.DAYS.toMillis(maxAgeDays));
+        final RetryingTransactionHelper txnHelper = serviceRegistry.getRetryingTransactionHelper();
+        try {
+            AuthenticationUtil.runAsSystem(() -> {
+                for (int batchNr = 0; batchNr < maxBatchesPerRun; batchNr++) {
+                    int archivedCount = txnHelper.doInTransaction(() ->
+                            workflowArchiveService.archiveCompletedWorkflows(
+                                    workflowDefinitionName, completedBefore, batchSize), false, true);
+
+                    numberOfWorkflowsArchived += archivedCount;
+                    LOG.debug("Archived [{}] workflows completed before [{}]", archivedCount, completedBefore);
+
+                    if (archivedCount < batchSize) {
+                        break;
+                    }
+
+                    // Fails if the lock has expired and been taken by another cluster member
+                    jobLockService.refreshLock(lockToken, LOCK_QNAME, LOCK_TTL);
+                }
+                return null;
+            });
+        } catch (LockAcquisitionException lae) {
+            LOG.warn("Lost the workflow archival lock, stopping [{}]", lae.getMessage());
+        } finally {
+            jobLockService.releaseLock(lockToken, LOCK_QNAME);
+        }
+    }
+}
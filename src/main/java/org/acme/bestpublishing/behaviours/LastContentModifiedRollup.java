@@ -0,0 +1,267 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.behaviours;
+
+import org.acme.bestpublishing.model.BestPubUtilsModel.LastContentModifiedAspect;
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.node.NodeServicePolicies;
+import org.alfresco.repo.policy.Behaviour;
+import org.alfresco.repo.policy.BehaviourFilter;
+import org.alfresco.repo.policy.JavaBehaviour;
+import org.alfresco.repo.policy.PolicyComponent;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.lock.LockStatus;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.EqualsHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.acme.bestpublishing.model.BestPubContentModel.BookFolderType;
+import static org.acme.bestpublishing.model.BestPubContentModel.WebPublishingInfoAspect;
+
+/**
+ * Rolls up cm:modified from all nodes under a book folder to the bpu:lastContentModified property on the
+ * book folder, so checking if a book has changed since it was published is a single property read.
+ * <p>
+ * Updates are coalesced, so the book folder is written at most once per transaction, when the transaction commits.
+ * The book folder is also not written again if it already has a last modified date after the published date that is
+ * less than the coalesce window older than the new date, so bulk imports spanning many transactions don't
+ * keep updating the same book node. The rolled up date can then be up to one coalesce window old,
+ * but it is always after the published date if anything changed after the book was published.
+ * <p>
+ * Only nodes created or modified directly in a book folder, or in one of its sub-folders (chapter folders,
+ * Styles, Artwork, and Supplementary), are rolled up, that is {@link #MAX_BOOK_FOLDER_DEPTH} folder levels.
+ * The behaviours are called for every node in the repository, so the walk up stops at the first parent that is
+ * not a folder. Nodes further down are found by the search in
+ * {@link org.acme.bestpublishing.services.BestPubUtilsService#checkModifiedDates(NodeRef, Date)}.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+public class LastContentModifiedRollup extends TransactionListenerAdapter implements
+        NodeServicePolicies.OnCreateNodePolicy,
+        NodeServicePolicies.OnUpdatePropertiesPolicy {
+    private static final Logger LOG = LoggerFactory.getLogger(LastContentModifiedRollup.class);
+
+    /**
+     * Number of folder levels from a rolled up node up to its book folder, the book folder and its sub-folders
+     */
+    public static final int MAX_BOOK_FOLDER_DEPTH = 2;
+
+    /**
+     * Transaction resource key for the book folder -> latest modified date map
+     */
+    private static final String TXN_KEY_MODIFIED_BOOK_FOLDERS =
+            LastContentModifiedRollup.class.getName() + ".modifiedBookFolders";
+
+    /**
+     * Alfresco Services
+     */
+    private ServiceRegistry serviceRegistry;
+    private PolicyComponent policyComponent;
+    private BehaviourFilter behaviourFilter;
+
+    /**
+     * Rollup config, min time between book folder updates
+     */
+    private long coalesceWindowMillis;
+
+    /**
+     * Spring Dependency Injection
+     */
+    public void setServiceRegistry(ServiceRegistry serviceRegistry) {
+        this.serviceRegistry = serviceRegistry;
+    }
+
+    public void setPolicyComponent(PolicyComponent policyComponent) {
+        this.policyComponent = policyComponent;
+    }
+
+    public void setBehaviourFilter(BehaviourFilter behaviourFilter) {
+        this.behaviourFilter = behaviourFilter;
+    }
+
+    public void setCoalesceWindowMillis(long coalesceWindowMillis) {
+        this.coalesceWindowMillis = coalesceWindowMillis;
+    }
+
+    /**
+     * Spring bean init method
+     */
+    public void init() {
+        policyComponent.bindClassBehaviour(NodeServicePolicies.OnCreateNodePolicy.QNAME,
+                ContentModel.TYPE_CMOBJECT,
+                new JavaBehaviour(this, "onCreateNode", Behaviour.NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindClassBehaviour(NodeServicePolicies.OnUpdatePropertiesPolicy.QNAME,
+                ContentModel.TYPE_CMOBJECT,
+                new JavaBehaviour(this, "onUpdateProperties", Behaviour.NotificationFrequency.EVERY_EVENT));
+    }
+
+    @Override
+    public void onCreateNode(ChildAssociationRef childAssocRef) {
+        NodeRef nodeRef = childAssocRef.getChildRef();
+        Date modified = (Date) serviceRegistry.getNodeService().getProperty(nodeRef, ContentModel.PROP_MODIFIED);
+        nodeModified(childAssocRef.getParentRef(), modified != null ? modified : new Date());
+    }
+
+    @Override
+    public void onUpdateProperties(NodeRef nodeRef, Map<QName, Serializable> before, Map<QName, Serializable> after) {
+        // Only count real modifications, bookkeeping updates such as fingerprints don't change cm:modified
+        Date modified = (Date) after.get(ContentModel.PROP_MODIFIED);
+        if (modified == null || EqualsHelper.nullSafeEquals(modified, before.get(ContentModel.PROP_MODIFIED))) {
+            return;
+        }
+
+        NodeService nodeService = serviceRegistry.getNodeService();
+        if (!nodeService.exists(nodeRef)) {
+            return;
+        }
+        ChildAssociationRef parentAssoc = nodeService.getPrimaryParent(nodeRef);
+        if (parentAssoc != null && parentAssoc.getParentRef() != null) {
+            nodeModified(parentAssoc.getParentRef(), modified);
+        }
+    }
+
+    /**
+     * A node was created or modified, remember the modified date for its book folder,
+     * if it is under one, until the transaction commits.
+     *
+     * @param parentNodeRef the parent of the modified node
+     * @param modified      the modified date
+     */
+    private void nodeModified(NodeRef parentNodeRef, Date modified) {
+        NodeRef bookFolderNodeRef = findBookFolder(parentNodeRef);
+        if (bookFolderNodeRef == null) {
+            return;
+        }
+
+        Map<NodeRef, Date> modifiedBookFolders = AlfrescoTransactionSupport.getResource(TXN_KEY_MODIFIED_BOOK_FOLDERS);
+        if (modifiedBookFolders == null) {
+            modifiedBookFolders = new HashMap<>();
+            AlfrescoTransactionSupport.bindResource(TXN_KEY_MODIFIED_BOOK_FOLDERS, modifiedBookFolders);
+            AlfrescoTransactionSupport.bindListener(this);
+        }
+
+        Date latestModified = modifiedBookFolders.get(bookFolderNodeRef);
+        if (latestModified == null || modified.after(latestModified)) {
+            modifiedBookFolders.put(bookFolderNodeRef, modified);
+        }
+    }
+
+    /**
+     * Find the book folder for the parent of a created or modified node, walking up at most
+     * {@link #MAX_BOOK_FOLDER_DEPTH} folders. The parent has to be the book folder or one of its sub-folders,
+     * such as a chapter folder or the Artwork folder.
+     *
+     * @param parentNodeRef the parent of the created or modified node
+     * @return the book folder node reference, or null if the node is not in a book folder or one of its sub-folders
+     */
+    private NodeRef findBookFolder(NodeRef parentNodeRef) {
+        NodeService nodeService = serviceRegistry.getNodeService();
+        NodeRef folderNodeRef = parentNodeRef;
+        for (int depth = 1; depth <= MAX_BOOK_FOLDER_DEPTH && folderNodeRef != null; depth++) {
+            QName folderType = nodeService.getType(folderNodeRef);
+            if (BookFolderType.QNAME.equals(folderType)) {
+                return folderNodeRef;
+            }
+            if (!serviceRegistry.getDictionaryService().isSubClass(folderType, ContentModel.TYPE_FOLDER)) {
+                return null;
+            }
+
+            ChildAssociationRef folderParentAssoc = nodeService.getPrimaryParent(folderNodeRef);
+            folderNodeRef = folderParentAssoc == null ? null : folderParentAssoc.getParentRef();
+        }
+
+        return null;
+    }
+
+    /**
+     * Write the rolled up modified dates to the book folders, once per book folder per transaction.
+     */
+    @Override
+    public void beforeCommit(boolean readOnly) {
+        Map<NodeRef, Date> modifiedBookFolders = AlfrescoTransactionSupport.getResource(TXN_KEY_MODIFIED_BOOK_FOLDERS);
+        if (modifiedBookFolders == null || readOnly) {
+            return;
+        }
+
+        for (Map.Entry<NodeRef, Date> modifiedBookFolder : modifiedBookFolders.entrySet()) {
+            updateBookFolder(modifiedBookFolder.getKey(), modifiedBookFolder.getValue());
+        }
+        modifiedBookFolders.clear();
+    }
+
+    /**
+     * Set last content modified on a book folder, unless it is already recent enough.
+     * This is bookkeeping, so runs as system and does not update cm:modified on the book folder.
+     *
+     * @param bookFolderNodeRef the book folder node reference
+     * @param modified          the latest modified date for a node in the book folder
+     */
+    private void updateBookFolder(final NodeRef bookFolderNodeRef, final Date modified) {
+        AuthenticationUtil.runAsSystem(() -> {
+            NodeService nodeService = serviceRegistry.getNodeService();
+            if (!nodeService.exists(bookFolderNodeRef)) {
+                return null;
+            }
+
+            Map<QName, Serializable> props = nodeService.getProperties(bookFolderNodeRef);
+            Date lastContentModified = (Date) props.get(LastContentModifiedAspect.Prop.LAST_CONTENT_MODIFIED);
+            if (lastContentModified != null) {
+                if (!modified.after(lastContentModified)) {
+                    return null;
+                }
+                Date publishedDate = (Date) props.get(WebPublishingInfoAspect.Prop.WEB_PUBLISHED_DATE);
+                if ((publishedDate == null || lastContentModified.after(publishedDate)) &&
+                        modified.getTime() - lastContentModified.getTime() < coalesceWindowMillis) {
+                    LOG.debug("Book folder [{}] updated within coalesce window, not updating last content modified",
+                            bookFolderNodeRef);
+                    return null;
+                }
+            }
+
+            LockStatus lockStatus = serviceRegistry.getLockService().getLockStatus(bookFolderNodeRef);
+            if (lockStatus != LockStatus.NO_LOCK && lockStatus != LockStatus.LOCK_EXPIRED) {
+                LOG.warn("Book folder [{}] is locked, cannot update last content modified", bookFolderNodeRef);
+                return null;
+            }
+
+            behaviourFilter.disableBehaviour(bookFolderNodeRef, ContentModel.ASPECT_AUDITABLE);
+            try {
+                Map<QName, Serializable> rollupProps = new HashMap<>();
+                rollupProps.put(LastContentModifiedAspect.Prop.LAST_CONTENT_MODIFIED, modified);
+                nodeService.addAspect(bookFolderNodeRef, LastContentModifiedAspect.QNAME, rollupProps);
+            } finally {
+                behaviourFilter.enableBehaviour(bookFolderNodeRef, ContentModel.ASPECT_AUDITABLE);
+            }
+
+            LOG.debug("Set last content modified [{}] for book folder [{}]", modified, bookFolderNodeRef);
+            return null;
+        });
+    }
+}
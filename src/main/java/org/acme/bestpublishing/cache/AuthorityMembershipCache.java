@@ -0,0 +1,117 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.cache;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.node.NodeServicePolicies;
+import org.alfresco.repo.policy.Behaviour;
+import org.alfresco.repo.policy.JavaBehaviour;
+import org.alfresco.repo.policy.PolicyComponent;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.util.Set;
+
+/**
+ * Cache of username to the full set of authorities (groups, including nested groups) the user is a member of.
+ * <p>
+ * Entries are invalidated when group membership changes. When a user is added to or removed from a group
+ * just that user's entry is removed, when a group is added to or removed from another group, or a group is
+ * deleted, the whole cache is cleared, as it could affect any number of users.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+@ManagedResource(description = "BestPub user to authorities cache")
+public class AuthorityMembershipCache extends BestPubCache<String, Set<String>> implements
+        NodeServicePolicies.OnCreateChildAssociationPolicy,
+        NodeServicePolicies.OnDeleteChildAssociationPolicy,
+        NodeServicePolicies.BeforeDeleteNodePolicy {
+    private static final Logger LOG = LoggerFactory.getLogger(AuthorityMembershipCache.class);
+
+    /**
+     * Alfresco Services
+     */
+    private ServiceRegistry serviceRegistry;
+    private PolicyComponent policyComponent;
+
+    /**
+     * Spring Dependency Injection
+     */
+    public void setServiceRegistry(ServiceRegistry serviceRegistry) {
+        this.serviceRegistry = serviceRegistry;
+    }
+
+    public void setPolicyComponent(PolicyComponent policyComponent) {
+        this.policyComponent = policyComponent;
+    }
+
+    /**
+     * Spring bean init method
+     */
+    public void init() {
+        policyComponent.bindAssociationBehaviour(NodeServicePolicies.OnCreateChildAssociationPolicy.QNAME,
+                ContentModel.TYPE_AUTHORITY_CONTAINER, ContentModel.ASSOC_MEMBER,
+                new JavaBehaviour(this, "onCreateChildAssociation", Behaviour.NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindAssociationBehaviour(NodeServicePolicies.OnDeleteChildAssociationPolicy.QNAME,
+                ContentModel.TYPE_AUTHORITY_CONTAINER, ContentModel.ASSOC_MEMBER,
+                new JavaBehaviour(this, "onDeleteChildAssociation", Behaviour.NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindClassBehaviour(NodeServicePolicies.BeforeDeleteNodePolicy.QNAME,
+                ContentModel.TYPE_AUTHORITY_CONTAINER,
+                new JavaBehaviour(this, "beforeDeleteNode", Behaviour.NotificationFrequency.EVERY_EVENT));
+    }
+
+    @Override
+    public void onCreateChildAssociation(ChildAssociationRef childAssocRef, boolean isNewNode) {
+        invalidate(childAssocRef.getChildRef());
+    }
+
+    @Override
+    public void onDeleteChildAssociation(ChildAssociationRef childAssocRef) {
+        invalidate(childAssocRef.getChildRef());
+    }
+
+    @Override
+    public void beforeDeleteNode(NodeRef groupNodeRef) {
+        LOG.debug("Group [{}] deleted, clearing authority membership cache", groupNodeRef);
+        clearInTransaction();
+    }
+
+    /**
+     * Remove cache entries affected by a membership change for passed in member.
+     *
+     * @param memberNodeRef the user or group that was added to or removed from a group
+     */
+    private void invalidate(NodeRef memberNodeRef) {
+        if (serviceRegistry.getNodeService().exists(memberNodeRef) &&
+                serviceRegistry.getDictionaryService().isSubClass(
+                        serviceRegistry.getNodeService().getType(memberNodeRef), ContentModel.TYPE_PERSON)) {
+            String username = (String) serviceRegistry.getNodeService().getProperty(
+                    memberNodeRef, ContentModel.PROP_USERNAME);
+            LOG.debug("Group membership changed for user [{}], removing from authority membership cache", username);
+            invalidateInTransaction(username);
+            return;
+        }
+
+        LOG.debug("Group membership changed for group [{}], clearing authority membership cache", memberNodeRef);
+        clearInTransaction();
+    }
+}
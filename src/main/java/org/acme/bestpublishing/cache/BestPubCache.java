@@ -0,0 +1,286 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.cache;
+
+import org.alfresco.repo.cache.SimpleCache;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thin wrapper around an Alfresco {@link SimpleCache} that keeps hit and miss statistics.
+ * <p>
+ * The underlying cache is created by the Alfresco cacheFactory, so size limit, time-to-live,
+ * and cluster behaviour (local, invalidating, fully-distributed) are all configured with the
+ * standard cache.[name].* properties in alfresco-global.properties.
+ * <p>
+ * Caches that are invalidated by repository changes use {@link #invalidateInTransaction(Serializable)},
+ * {@link #invalidateValueInTransaction(Object)}, and {@link #clearInTransaction()}. These remove the entries
+ * straight away, and again when the transaction commits, so a value loaded by another thread before the change
+ * was committed does not stay in the cache. Entries invalidated in a transaction are not cached again in that
+ * transaction, check with {@link #isCacheable(Serializable)} before putting a loaded value, so uncommitted data
+ * does not end up in the cache. Set cache.[name].cluster.type=invalidating to get cluster safe invalidation.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+public class BestPubCache<K extends Serializable, V> {
+
+    /**
+     * The Alfresco cache doing the actual work
+     */
+    private SimpleCache<K, V> cache;
+
+    /**
+     * Transaction resource key for what has been invalidated in the current transaction
+     */
+    private final String txnKeyInvalidations = getClass().getName() + ".invalidations";
+
+    /**
+     * Cache stats
+     */
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Invalidates again after commit
+     */
+    private final TransactionListenerAdapter afterCommitInvalidator = new TransactionListenerAdapter() {
+        @Override
+        public void afterCommit() {
+            Invalidations<K, V> invalidations = AlfrescoTransactionSupport.getResource(txnKeyInvalidations);
+            if (invalidations == null) {
+                return;
+            }
+            if (invalidations.cleared) {
+                clear();
+                return;
+            }
+            for (K key : invalidations.keys) {
+                remove(key);
+            }
+            if (!invalidations.values.isEmpty()) {
+                removeEntriesFor(invalidations.values);
+            }
+        }
+    };
+
+    /**
+     * Spring Dependency Injection
+     */
+    public void setCache(SimpleCache<K, V> cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Get a value from the cache and record a hit or a miss.
+     *
+     * @param key the cache key
+     * @return the cached value, or null if not in cache
+     */
+    public V get(K key) {
+        V value = cache.get(key);
+        if (value == null) {
+            missCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+        }
+
+        return value;
+    }
+
+    /**
+     * Get a value from the cache without affecting the hit and miss statistics.
+     *
+     * @param key the cache key
+     * @return the cached value, or null if not in cache
+     */
+    protected V peek(K key) {
+        return cache.get(key);
+    }
+
+    public void put(K key, V value) {
+        cache.put(key, value);
+    }
+
+    public void remove(K key) {
+        cache.remove(key);
+    }
+
+    public boolean contains(K key) {
+        return cache.contains(key);
+    }
+
+    public Collection<K> getKeys() {
+        return cache.getKeys();
+    }
+
+    @ManagedOperation(description = "Remove all entries from the cache")
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Check if a value for a key can be cached, that is if the key has not been invalidated
+     * in the current transaction.
+     *
+     * @param key the cache key
+     * @return true if a value for the key can be cached
+     */
+    public boolean isCacheable(K key) {
+        if (AlfrescoTransactionSupport.getTransactionReadState() == AlfrescoTransactionSupport.TxnReadState.TXN_NONE) {
+            return true;
+        }
+        Invalidations<K, V> invalidations = AlfrescoTransactionSupport.getResource(txnKeyInvalidations);
+
+        // Any key could be pointing to an invalidated value
+        return invalidations == null ||
+                (!invalidations.cleared && invalidations.values.isEmpty() && !invalidations.keys.contains(key));
+    }
+
+    /**
+     * Remove the entry for a key now, and again when the transaction commits.
+     *
+     * @param key the cache key
+     */
+    protected void invalidateInTransaction(K key) {
+        remove(key);
+        Invalidations<K, V> invalidations = getInvalidations();
+        if (invalidations != null) {
+            invalidations.keys.add(key);
+        }
+    }
+
+    /**
+     * Remove all entries pointing to a value now, and again when the transaction commits.
+     *
+     * @param value the cached value
+     */
+    protected void invalidateValueInTransaction(V value) {
+        Set<V> values = new HashSet<>();
+        values.add(value);
+        removeEntriesFor(values);
+        Invalidations<K, V> invalidations = getInvalidations();
+        if (invalidations != null) {
+            invalidations.values.add(value);
+        }
+    }
+
+    /**
+     * Clear the whole cache now, and again when the transaction commits.
+     */
+    protected void clearInTransaction() {
+        clear();
+        Invalidations<K, V> invalidations = getInvalidations();
+        if (invalidations != null) {
+            invalidations.cleared = true;
+        }
+    }
+
+    /**
+     * Check if anything has been invalidated in the current transaction.
+     *
+     * @return true if an entry has been invalidated, or the cache cleared, in the current transaction
+     */
+    protected boolean isInvalidatedInTransaction() {
+        return AlfrescoTransactionSupport.getResource(txnKeyInvalidations) != null;
+    }
+
+    /**
+     * Get what has been invalidated in the current transaction, binding it and the after commit
+     * invalidator the first time.
+     *
+     * @return the invalidations, or null if there is no transaction
+     */
+    private Invalidations<K, V> getInvalidations() {
+        if (AlfrescoTransactionSupport.getTransactionReadState() == AlfrescoTransactionSupport.TxnReadState.TXN_NONE) {
+            return null;
+        }
+        Invalidations<K, V> invalidations = AlfrescoTransactionSupport.getResource(txnKeyInvalidations);
+        if (invalidations == null) {
+            invalidations = new Invalidations<>();
+            AlfrescoTransactionSupport.bindResource(txnKeyInvalidations, invalidations);
+            AlfrescoTransactionSupport.bindListener(afterCommitInvalidator);
+        }
+
+        return invalidations;
+    }
+
+    /**
+     * Remove all cache entries pointing to passed in values.
+     *
+     * @param values the values to remove entries for
+     */
+    private void removeEntriesFor(Set<V> values) {
+        for (K key : getKeys()) {
+            if (values.contains(cache.get(key))) {
+                remove(key);
+            }
+        }
+    }
+
+    /**
+     * Managed Properties (JMX)
+     */
+    @ManagedAttribute(description = "Number of cache hits")
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    @ManagedAttribute(description = "Number of cache misses")
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    @ManagedAttribute(description = "Cache hit ratio (0.0 - 1.0)")
+    public double getHitRatio() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        if (total == 0) {
+            return 0.0;
+        }
+
+        return (double) hits / total;
+    }
+
+    @ManagedAttribute(description = "Number of entries currently in the cache")
+    public int getSize() {
+        return cache.getKeys().size();
+    }
+
+    @ManagedOperation(description = "Reset hit and miss statistics")
+    public void resetStatistics() {
+        hitCount.set(0);
+        missCount.set(0);
+    }
+
+    /**
+     * Keys and values invalidated in a transaction, and whether the whole cache has been cleared
+     */
+    private static class Invalidations<K, V> {
+        private final Set<K> keys = new HashSet<>();
+        private final Set<V> values = new HashSet<>();
+        private boolean cleared;
+    }
+}
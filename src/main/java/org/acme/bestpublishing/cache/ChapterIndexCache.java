@@ -0,0 +1,153 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.cache;
+
+import org.acme.bestpublishing.props.ChapterIndex;
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.node.NodeServicePolicies;
+import org.alfresco.repo.policy.Behaviour;
+import org.alfresco.repo.policy.JavaBehaviour;
+import org.alfresco.repo.policy.PolicyComponent;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.EqualsHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.io.Serializable;
+import java.util.Map;
+
+import static org.acme.bestpublishing.model.BestPubContentModel.BookFolderType;
+import static org.acme.bestpublishing.model.BestPubContentModel.ChapterFolderType;
+import static org.acme.bestpublishing.model.BestPubContentModel.ChapterInfoAspect;
+
+/**
+ * Cache of ISBN folder node reference to the chapter index for the book.
+ * <p>
+ * Entries are invalidated when chapter folders are added to or removed from the ISBN folder, moved, renamed,
+ * or get their chapter info (number, title, author) changed, and when the ISBN folder is deleted.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+@ManagedResource(description = "BestPub ISBN folder to chapter index cache")
+public class ChapterIndexCache extends BestPubCache<NodeRef, ChapterIndex> implements
+        NodeServicePolicies.OnCreateChildAssociationPolicy,
+        NodeServicePolicies.OnDeleteChildAssociationPolicy,
+        NodeServicePolicies.OnMoveNodePolicy,
+        NodeServicePolicies.OnUpdatePropertiesPolicy,
+        NodeServicePolicies.BeforeDeleteNodePolicy {
+    private static final Logger LOG = LoggerFactory.getLogger(ChapterIndexCache.class);
+
+    /**
+     * Chapter folder properties that are part of the chapter index
+     */
+    private static final QName[] INDEXED_PROPS = {
+            ContentModel.PROP_NAME,
+            ChapterInfoAspect.Prop.CHAPTER_NUMBER,
+            ChapterInfoAspect.Prop.CHAPTER_TITLE,
+            ChapterInfoAspect.Prop.CHAPTER_AUTHOR_NAME
+    };
+
+    /**
+     * Alfresco Services
+     */
+    private ServiceRegistry serviceRegistry;
+    private PolicyComponent policyComponent;
+
+    /**
+     * Spring Dependency Injection
+     */
+    public void setServiceRegistry(ServiceRegistry serviceRegistry) {
+        this.serviceRegistry = serviceRegistry;
+    }
+
+    public void setPolicyComponent(PolicyComponent policyComponent) {
+        this.policyComponent = policyComponent;
+    }
+
+    /**
+     * Spring bean init method
+     */
+    public void init() {
+        policyComponent.bindAssociationBehaviour(NodeServicePolicies.OnCreateChildAssociationPolicy.QNAME,
+                BookFolderType.QNAME, ContentModel.ASSOC_CONTAINS,
+                new JavaBehaviour(this, "onCreateChildAssociation", Behaviour.NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindAssociationBehaviour(NodeServicePolicies.OnDeleteChildAssociationPolicy.QNAME,
+                BookFolderType.QNAME, ContentModel.ASSOC_CONTAINS,
+                new JavaBehaviour(this, "onDeleteChildAssociation", Behaviour.NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindClassBehaviour(NodeServicePolicies.BeforeDeleteNodePolicy.QNAME,
+                BookFolderType.QNAME,
+                new JavaBehaviour(this, "beforeDeleteNode", Behaviour.NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindClassBehaviour(NodeServicePolicies.OnMoveNodePolicy.QNAME,
+                ChapterFolderType.QNAME,
+                new JavaBehaviour(this, "onMoveNode", Behaviour.NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindClassBehaviour(NodeServicePolicies.OnUpdatePropertiesPolicy.QNAME,
+                ChapterFolderType.QNAME,
+                new JavaBehaviour(this, "onUpdateProperties", Behaviour.NotificationFrequency.EVERY_EVENT));
+    }
+
+    @Override
+    public void onCreateChildAssociation(ChildAssociationRef childAssocRef, boolean isNewNode) {
+        invalidate(childAssocRef.getParentRef());
+    }
+
+    @Override
+    public void onDeleteChildAssociation(ChildAssociationRef childAssocRef) {
+        invalidate(childAssocRef.getParentRef());
+    }
+
+    @Override
+    public void beforeDeleteNode(NodeRef bookFolderNodeRef) {
+        invalidate(bookFolderNodeRef);
+    }
+
+    @Override
+    public void onMoveNode(ChildAssociationRef oldChildAssocRef, ChildAssociationRef newChildAssocRef) {
+        invalidate(oldChildAssocRef.getParentRef());
+        invalidate(newChildAssocRef.getParentRef());
+    }
+
+    @Override
+    public void onUpdateProperties(NodeRef chapterFolderNodeRef,
+                                   Map<QName, Serializable> before, Map<QName, Serializable> after) {
+        for (QName indexedProp : INDEXED_PROPS) {
+            if (!EqualsHelper.nullSafeEquals(before.get(indexedProp), after.get(indexedProp))) {
+                // Chapter folders are always directly in the ISBN folder
+                ChildAssociationRef parentAssoc =
+                        serviceRegistry.getNodeService().getPrimaryParent(chapterFolderNodeRef);
+                if (parentAssoc != null && parentAssoc.getParentRef() != null) {
+                    invalidate(parentAssoc.getParentRef());
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Remove the chapter index for an ISBN folder now, and again when the transaction commits.
+     *
+     * @param bookFolderNodeRef the ISBN folder node reference
+     */
+    private void invalidate(NodeRef bookFolderNodeRef) {
+        LOG.debug("Chapters changed for [{}], removing chapter index from cache", bookFolderNodeRef);
+        invalidateInTransaction(bookFolderNodeRef);
+    }
+}
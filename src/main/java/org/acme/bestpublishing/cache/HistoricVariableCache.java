@@ -0,0 +1,152 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.cache;
+
+import org.apache.commons.lang.SerializationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+/**
+ * Cache of historic process variable values for completed process instances,
+ * keyed on process instance id and variable name.
+ * <p>
+ * Variables of a completed process instance never change, so entries are never invalidated,
+ * they are only evicted when the cache is full. Variables that are not set are cached too,
+ * so a missing variable does not cause a history query every time.
+ * Only use it for completed process instances, active process instances can still change their variables.
+ * <p>
+ * Values that can be changed, such as lists and maps, are copied when they are cached and every time
+ * they are read, so a caller changing a value it got back does not change it for everyone else.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+@ManagedResource(description = "BestPub completed process instance historic variable cache")
+public class HistoricVariableCache extends BestPubCache<String, Serializable> {
+    private static final Logger LOG = LoggerFactory.getLogger(HistoricVariableCache.class);
+
+    /**
+     * Cached for variables that are not set on the process instance
+     */
+    private enum NotSet {
+        INSTANCE
+    }
+
+    /**
+     * Get a historic variable value, reading it with the loader and caching it if it is not in the cache.
+     *
+     * @param processInstanceId the Activiti process instance id (e.g. 23456) of a completed process instance
+     * @param variableName      a process variable name
+     * @param loader            reads the variable value from history given process instance id and variable name
+     * @return the variable value, or null if not set
+     */
+    public Object getVariable(String processInstanceId, String variableName,
+                              BiFunction<String, String, Object> loader) {
+        Serializable cachedValue = get(createKey(processInstanceId, variableName));
+        if (cachedValue != null) {
+            return cachedValue == NotSet.INSTANCE ? null : copyOf(cachedValue);
+        }
+
+        Object value = loader.apply(processInstanceId, variableName);
+        putVariable(processInstanceId, variableName, value);
+
+        return value;
+    }
+
+    /**
+     * Get a number of cached historic variable values for a process instance.
+     *
+     * @param processInstanceId the Activiti process instance id (e.g. 23456) of a completed process instance
+     * @param variableNames     the process variable names
+     * @return a map of variable name to value with the variables that are set,
+     * or null if any of the variables is not in the cache
+     */
+    public Map<String, Object> getVariables(String processInstanceId, Set<String> variableNames) {
+        Map<String, Object> variables = new HashMap<>(variableNames.size() * 2);
+        for (String variableName : variableNames) {
+            Serializable cachedValue = get(createKey(processInstanceId, variableName));
+            if (cachedValue == null) {
+                return null;
+            }
+            if (cachedValue != NotSet.INSTANCE) {
+                variables.put(variableName, copyOf(cachedValue));
+            }
+        }
+
+        return variables;
+    }
+
+    /**
+     * Cache a number of historic variable values for a completed process instance,
+     * variables missing from the passed in variables are cached as not set.
+     *
+     * @param processInstanceId the Activiti process instance id (e.g. 23456)
+     * @param variableNames     the process variable names to cache
+     * @param variables         the process variables for the process instance
+     */
+    public void putVariables(String processInstanceId, Set<String> variableNames, Map<String, Object> variables) {
+        for (String variableName : variableNames) {
+            putVariable(processInstanceId, variableName, variables == null ? null : variables.get(variableName));
+        }
+    }
+
+    /**
+     * Cache a historic variable value for a completed process instance.
+     * Values that are not serializable are not cached.
+     *
+     * @param processInstanceId the Activiti process instance id (e.g. 23456)
+     * @param variableName      a process variable name
+     * @param value             the variable value, or null if it is not set
+     */
+    public void putVariable(String processInstanceId, String variableName, Object value) {
+        if (value == null) {
+            put(createKey(processInstanceId, variableName), NotSet.INSTANCE);
+        } else if (value instanceof Serializable) {
+            put(createKey(processInstanceId, variableName), copyOf((Serializable) value));
+        } else {
+            LOG.debug("Not caching process variable {} for process instance [{}], value type {} is not serializable",
+                    new Object[]{variableName, processInstanceId, value.getClass().getName()});
+        }
+    }
+
+    /**
+     * Copy a value that can be changed, immutable values are returned as they are.
+     *
+     * @param value the value to copy
+     * @return the value, or a deep copy of it if it can be changed
+     */
+    private Serializable copyOf(Serializable value) {
+        if (value instanceof String || value instanceof Number || value instanceof Boolean ||
+                value instanceof Character || value instanceof Enum) {
+            return value;
+        }
+
+        // Lists, maps, dates, arrays, and any other serializable value, including values nested in them
+        return (Serializable) SerializationUtils.clone(value);
+    }
+
+    private String createKey(String processInstanceId, String variableName) {
+        return processInstanceId + "/" + variableName;
+    }
+}
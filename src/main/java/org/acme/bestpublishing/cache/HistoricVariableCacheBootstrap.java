@@ -0,0 +1,144 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.cache;
+
+import org.activiti.engine.HistoryService;
+import org.activiti.engine.history.HistoricProcessInstance;
+import org.alfresco.repo.workflow.BPMEngineRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.extensions.surf.util.AbstractLifecycleBean;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Warms the {@link HistoricVariableCache} at startup with the variables of the most recently
+ * completed process instances for a workflow definition, such as the ISBN and title shown on dashboards.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+@ManagedResource(description = "BestPub historic variable cache warm-up")
+public class HistoricVariableCacheBootstrap extends AbstractLifecycleBean {
+    private static final Logger LOG = LoggerFactory.getLogger(HistoricVariableCacheBootstrap.class);
+
+    /**
+     * Number of completed process instances read per history query
+     */
+    private static final int PAGE_SIZE = 100;
+
+    /**
+     * Activiti services
+     */
+    private HistoryService activitiHistoryService;
+
+    /**
+     * Best Pub Specific services
+     */
+    private HistoricVariableCache historicVariableCache;
+
+    /**
+     * Warm-up config
+     */
+    private boolean warmUpOnStartup;
+    private String workflowDefinitionName;
+    private Set<String> variableNames;
+    private int maxProcessInstances;
+
+    /**
+     * Spring Dependency Injection
+     */
+    public void setActivitiHistoryService(HistoryService activitiHistoryService) {
+        this.activitiHistoryService = activitiHistoryService;
+    }
+
+    public void setHistoricVariableCache(HistoricVariableCache historicVariableCache) {
+        this.historicVariableCache = historicVariableCache;
+    }
+
+    public void setWarmUpOnStartup(boolean warmUpOnStartup) {
+        this.warmUpOnStartup = warmUpOnStartup;
+    }
+
+    public void setWorkflowDefinitionName(String workflowDefinitionName) {
+        this.workflowDefinitionName = workflowDefinitionName;
+    }
+
+    /**
+     * @param variableNames comma separated list of process variable names, such as 'bookpub_ISBN,bookpub_bookTitle'
+     */
+    public void setVariableNames(String variableNames) {
+        this.variableNames = new LinkedHashSet<>(Arrays.asList(variableNames.trim().split("\\s*,\\s*")));
+    }
+
+    public void setMaxProcessInstances(int maxProcessInstances) {
+        this.maxProcessInstances = maxProcessInstances;
+    }
+
+    @Override
+    protected void onBootstrap(ApplicationEvent event) {
+        if (warmUpOnStartup) {
+            warmUp();
+        }
+    }
+
+    @Override
+    protected void onShutdown(ApplicationEvent event) {
+        // Nothing to do
+    }
+
+    /**
+     * Cache the variables of the most recently completed process instances.
+     *
+     * @return the number of process instances that had their variables cached
+     */
+    @ManagedOperation(description = "Cache the variables of the most recently completed process instances")
+    public int warmUp() {
+        long startTime = System.currentTimeMillis();
+        String processDefinitionKey = BPMEngineRegistry.getLocalId(workflowDefinitionName);
+        int processInstanceCount = 0;
+        while (processInstanceCount < maxProcessInstances) {
+            List<HistoricProcessInstance> processInstances = activitiHistoryService.
+                    createHistoricProcessInstanceQuery().
+                    processDefinitionKey(processDefinitionKey).
+                    finished().
+                    includeProcessVariables().
+                    orderByProcessInstanceEndTime().desc().
+                    listPage(processInstanceCount, Math.min(PAGE_SIZE, maxProcessInstances - processInstanceCount));
+            for (HistoricProcessInstance processInstance : processInstances) {
+                historicVariableCache.putVariables(
+                        processInstance.getId(), variableNames, processInstance.getProcessVariables());
+            }
+            processInstanceCount += processInstances.size();
+            if (processInstances.size() < PAGE_SIZE) {
+                break;
+            }
+        }
+
+        LOG.info("Cached variables {} for [{}] completed {} process instances in [{}] ms",
+                new Object[]{variableNames, processInstanceCount, processDefinitionKey,
+                        System.currentTimeMillis() - startTime});
+
+        return processInstanceCount;
+    }
+}
@@ -0,0 +1,517 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.cache;
+
+import org.acme.bestpublishing.services.AlfrescoRepoUtilsService;
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.lock.JobLockService;
+import org.alfresco.repo.lock.LockAcquisitionException;
+import org.alfresco.repo.node.NodeServicePolicies;
+import org.alfresco.repo.policy.Behaviour;
+import org.alfresco.repo.policy.JavaBehaviour;
+import org.alfresco.repo.policy.PolicyComponent;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.query.PagingRequest;
+import org.alfresco.query.PagingResults;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.cmr.model.FileInfo;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.namespace.RegexQNamePattern;
+import org.alfresco.util.EqualsHelper;
+import org.alfresco.util.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.extensions.surf.util.AbstractLifecycleBean;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.acme.bestpublishing.constants.BestPubConstants.*;
+import static org.acme.bestpublishing.model.BestPubContentModel.BookFolderType;
+
+/**
+ * Index of ISBN to book folder for all books in /Company Home/Sites/book-management/documentLibrary/{year}/{isbn},
+ * whatever year folder they are in.
+ * <p>
+ * The index is kept in memory for O(1) lookups, and persisted with the Alfresco attribute service so it is
+ * shared by all cluster members. It is loaded at startup, rebuilt by listing the book folders one page at a
+ * time for each year folder if nothing has been persisted yet or if configured to, and then maintained by book
+ * folder create, move, rename, and delete behaviours. Changes are applied to the in-memory index when the
+ * transaction commits. A rebuild holds a cluster wide job lock, so only one cluster member scans the repository.
+ * <p>
+ * The in-memory index of a cluster member is not updated by changes made on other members, so a lookup
+ * checks that the book folder still exists, still has the ISBN as name, and is still in a year folder,
+ * and otherwise falls back to the persisted index.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+@ManagedResource(description = "BestPub ISBN to book folder index")
+public class IsbnBookFolderIndex extends AbstractLifecycleBean implements
+        NodeServicePolicies.OnCreateNodePolicy,
+        NodeServicePolicies.OnMoveNodePolicy,
+        NodeServicePolicies.OnUpdatePropertiesPolicy,
+        NodeServicePolicies.BeforeDeleteNodePolicy {
+    private static final Logger LOG = LoggerFactory.getLogger(IsbnBookFolderIndex.class);
+
+    /**
+     * Attribute service key for the persisted index, ISBN is the second key
+     */
+    private static final String ATTR_KEY_INDEX = "org.acme.bestpublishing.isbnBookFolderIndex";
+
+    /**
+     * Transaction resource key for index changes to apply to the in-memory index on commit,
+     * ISBN -> book folder, or null if removed
+     */
+    private static final String TXN_KEY_INDEX_CHANGES = IsbnBookFolderIndex.class.getName() + ".indexChanges";
+
+    /**
+     * Cluster wide rebuild lock, refreshed after each page of book folders
+     */
+    private static final QName LOCK_QNAME = QName.createQName(NamespaceService.SYSTEM_MODEL_1_0_URI,
+            "org.acme.bestpublishing.isbnBookFolderIndexRebuild");
+    private static final long LOCK_TTL = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Alfresco Services
+     */
+    private ServiceRegistry serviceRegistry;
+    private PolicyComponent policyComponent;
+    private JobLockService jobLockService;
+
+    /**
+     * Best Pub Specific services
+     */
+    private AlfrescoRepoUtilsService alfrescoRepoUtilsService;
+
+    /**
+     * Rebuild the index from the repository at startup, and number of book folders to list per transaction
+     */
+    private boolean rebuildOnStartup;
+    private int rebuildPageSize;
+
+    /**
+     * The in-memory index, ISBN -> book folder
+     */
+    private final Map<String, NodeRef> isbn2BookFolder = new ConcurrentHashMap<>();
+
+    /**
+     * Index stats
+     */
+    private Date lastRebuildTime;
+    private long lastRebuildDurationMillis;
+
+    /**
+     * Applies the transaction's index changes to the in-memory index on commit
+     */
+    private final TransactionListenerAdapter indexChangeApplier = new TransactionListenerAdapter() {
+        @Override
+        public void afterCommit() {
+            Map<String, NodeRef> indexChanges = AlfrescoTransactionSupport.getResource(TXN_KEY_INDEX_CHANGES);
+            if (indexChanges == null) {
+                return;
+            }
+            for (Map.Entry<String, NodeRef> indexChange : indexChanges.entrySet()) {
+                if (indexChange.getValue() == null) {
+                    isbn2BookFolder.remove(indexChange.getKey());
+                } else {
+                    isbn2BookFolder.put(indexChange.getKey(), indexChange.getValue());
+                }
+            }
+        }
+    };
+
+    /**
+     * Spring Dependency Injection
+     */
+    public void setServiceRegistry(ServiceRegistry serviceRegistry) {
+        this.serviceRegistry = serviceRegistry;
+    }
+
+    public void setPolicyComponent(PolicyComponent policyComponent) {
+        this.policyComponent = policyComponent;
+    }
+
+    public void setJobLockService(JobLockService jobLockService) {
+        this.jobLockService = jobLockService;
+    }
+
+    public void setAlfrescoRepoUtilsService(AlfrescoRepoUtilsService alfrescoRepoUtilsService) {
+        this.alfrescoRepoUtilsService = alfrescoRepoUtilsService;
+    }
+
+    public void setRebuildOnStartup(boolean rebuildOnStartup) {
+        this.rebuildOnStartup = rebuildOnStartup;
+    }
+
+    public void setRebuildPageSize(int rebuildPageSize) {
+        this.rebuildPageSize = rebuildPageSize;
+    }
+
+    /**
+     * Spring bean init method
+     */
+    public void init() {
+        policyComponent.bindClassBehaviour(NodeServicePolicies.OnCreateNodePolicy.QNAME,
+                BookFolderType.QNAME,
+                new JavaBehaviour(this, "onCreateNode", Behaviour.NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindClassBehaviour(NodeServicePolicies.OnMoveNodePolicy.QNAME,
+                BookFolderType.QNAME,
+                new JavaBehaviour(this, "onMoveNode", Behaviour.NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindClassBehaviour(NodeServicePolicies.OnUpdatePropertiesPolicy.QNAME,
+                BookFolderType.QNAME,
+                new JavaBehaviour(this, "onUpdateProperties", Behaviour.NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindClassBehaviour(NodeServicePolicies.BeforeDeleteNodePolicy.QNAME,
+                BookFolderType.QNAME,
+                new JavaBehaviour(this, "beforeDeleteNode", Behaviour.NotificationFrequency.EVERY_EVENT));
+    }
+
+    /**
+     * Managed Properties (JMX)
+     */
+    @ManagedAttribute(description = "Number of books in the index")
+    public int getSize() {
+        return isbn2BookFolder.size();
+    }
+
+    @ManagedAttribute(description = "Last time the index was rebuilt")
+    public Date getLastRebuildTime() {
+        return lastRebuildTime;
+    }
+
+    @ManagedAttribute(description = "Time it took to rebuild the index last time (ms)")
+    public long getLastRebuildDurationMillis() {
+        return lastRebuildDurationMillis;
+    }
+
+    /**
+     * Get the book folder for an ISBN.
+     *
+     * @param isbn the ISBN, such as 9780203093474
+     * @return the book folder node reference, or null if the ISBN is not in the index
+     */
+    public NodeRef getBookFolder(String isbn) {
+        NodeRef bookFolderNodeRef = isbn2BookFolder.get(isbn);
+        if (isBookFolderFor(isbn, bookFolderNodeRef)) {
+            return bookFolderNodeRef;
+        }
+
+        // Not known here, or deleted, renamed, or moved, check the persisted index
+        // as it might have been changed by another cluster member
+        bookFolderNodeRef = (NodeRef) serviceRegistry.getAttributeService().getAttribute(ATTR_KEY_INDEX, isbn);
+        if (isBookFolderFor(isbn, bookFolderNodeRef)) {
+            isbn2BookFolder.put(isbn, bookFolderNodeRef);
+            return bookFolderNodeRef;
+        }
+
+        isbn2BookFolder.remove(isbn);
+        return null;
+    }
+
+    /**
+     * Add a book folder that was found some other way to the index, should be called in a read-write transaction.
+     *
+     * @param isbn              the ISBN, such as 9780203093474
+     * @param bookFolderNodeRef the book folder node reference
+     */
+    public void addBookFolder(String isbn, NodeRef bookFolderNodeRef) {
+        indexChanged(isbn, bookFolderNodeRef);
+    }
+
+    /**
+     * Rebuild the index from the book folders in the repository, year folder by year folder,
+     * listing and persisting each page of book folders in its own transactions.
+     * Does nothing if another cluster member is already rebuilding the index.
+     */
+    @ManagedOperation(description = "Rebuild the index from the book folders in the repository")
+    public void rebuild() {
+        final String lockToken;
+        try {
+            lockToken = jobLockService.getLock(LOCK_QNAME, LOCK_TTL);
+        } catch (LockAcquisitionException lae) {
+            LOG.info("ISBN to book folder index is already being rebuilt by another cluster member [{}]",
+                    lae.getMessage());
+            return;
+        }
+
+        try {
+            rebuild(lockToken);
+        } catch (LockAcquisitionException lae) {
+            LOG.warn("Lost the ISBN to book folder index rebuild lock, stopping [{}]", lae.getMessage());
+        } finally {
+            jobLockService.releaseLock(lockToken, LOCK_QNAME);
+        }
+    }
+
+    /**
+     * Rebuild the index while holding the rebuild lock.
+     *
+     * @param lockToken the rebuild lock token, refreshed after each page of book folders
+     */
+    private void rebuild(final String lockToken) {
+        long startTime = System.currentTimeMillis();
+        final RetryingTransactionHelper txnHelper = serviceRegistry.getRetryingTransactionHelper();
+
+        AuthenticationUtil.runAsSystem(() -> {
+            final NodeRef docLibNodeRef = txnHelper.doInTransaction(this::getBookManagementDocLib, true, true);
+            if (docLibNodeRef == null) {
+                LOG.warn("Book management document library not found, cannot build ISBN index");
+                return null;
+            }
+
+            List<ChildAssociationRef> yearFolderAssocs = txnHelper.doInTransaction(() ->
+                    serviceRegistry.getNodeService().getChildAssocs(
+                            docLibNodeRef, ContentModel.ASSOC_CONTAINS, RegexQNamePattern.MATCH_ALL), true, true);
+            final Map<String, NodeRef> rebuiltIndex = new HashMap<>();
+            for (final ChildAssociationRef yearFolderAssoc : yearFolderAssocs) {
+                int skipCount = 0;
+                boolean hasMore = true;
+                while (hasMore) {
+                    final int pageSkipCount = skipCount;
+                    final PagingResults<FileInfo> page = txnHelper.doInTransaction(
+                            () -> listBookFolders(yearFolderAssoc.getChildRef(), pageSkipCount), true, true);
+                    final List<FileInfo> bookFolders = page.getPage();
+                    hasMore = page.hasMoreItems() && !bookFolders.isEmpty();
+                    skipCount += bookFolders.size();
+                    if (bookFolders.isEmpty()) {
+                        continue;
+                    }
+
+                    txnHelper.doInTransaction(() -> {
+                        AttributeService attributeService = serviceRegistry.getAttributeService();
+                        for (FileInfo bookFolder : bookFolders) {
+                            if (!bookFolder.getNodeRef().equals(
+                                    attributeService.getAttribute(ATTR_KEY_INDEX, bookFolder.getName()))) {
+                                attributeService.setAttribute(
+                                        bookFolder.getNodeRef(), ATTR_KEY_INDEX, bookFolder.getName());
+                            }
+                        }
+                        return null;
+                    }, false, true);
+                    for (FileInfo bookFolder : bookFolders) {
+                        rebuiltIndex.put(bookFolder.getName(), bookFolder.getNodeRef());
+                    }
+
+                    // Fails if the lock has expired and been taken by another cluster member
+                    jobLockService.refreshLock(lockToken, LOCK_QNAME, LOCK_TTL);
+                }
+            }
+
+            // Remove books that are no longer in the repository
+            final Set<String> removedIsbns = new HashSet<>(isbn2BookFolder.keySet());
+            removedIsbns.removeAll(rebuiltIndex.keySet());
+            if (!removedIsbns.isEmpty()) {
+                txnHelper.doInTransaction(() -> {
+                    for (String removedIsbn : removedIsbns) {
+                        serviceRegistry.getAttributeService().removeAttribute(ATTR_KEY_INDEX, removedIsbn);
+                    }
+                    return null;
+                }, false, true);
+            }
+
+            isbn2BookFolder.putAll(rebuiltIndex);
+            isbn2BookFolder.keySet().removeAll(removedIsbns);
+            return null;
+        });
+
+        lastRebuildTime = new Date();
+        lastRebuildDurationMillis = System.currentTimeMillis() - startTime;
+        LOG.info("Rebuilt ISBN to book folder index with [{}] books in [{}ms]",
+                isbn2BookFolder.size(), lastRebuildDurationMillis);
+    }
+
+    /**
+     * Load the persisted index into memory.
+     */
+    private void load() {
+        AuthenticationUtil.runAsSystem(() -> serviceRegistry.getRetryingTransactionHelper().doInTransaction(() -> {
+            serviceRegistry.getAttributeService().getAttributes((id, value, keys) -> {
+                isbn2BookFolder.put((String) keys[1], (NodeRef) value);
+                return true;
+            }, ATTR_KEY_INDEX);
+            return null;
+        }, true, true));
+
+        LOG.info("Loaded ISBN to book folder index with [{}] books", isbn2BookFolder.size());
+    }
+
+    @Override
+    protected void onBootstrap(ApplicationEvent event) {
+        load();
+        if (rebuildOnStartup) {
+            rebuild();
+        } else if (isbn2BookFolder.isEmpty()) {
+            // First deployment, nothing persisted yet, so books in earlier year folders would not be found
+            LOG.info("ISBN to book folder index has not been built yet, building it");
+            rebuild();
+        }
+    }
+
+    @Override
+    protected void onShutdown(ApplicationEvent event) {
+        // Nothing to do
+    }
+
+    @Override
+    public void onCreateNode(ChildAssociationRef childAssocRef) {
+        if (isBookManagementYearFolder(childAssocRef.getParentRef())) {
+            NodeRef bookFolderNodeRef = childAssocRef.getChildRef();
+            indexChanged(getName(bookFolderNodeRef), bookFolderNodeRef);
+        }
+    }
+
+    @Override
+    public void onMoveNode(ChildAssociationRef oldChildAssocRef, ChildAssociationRef newChildAssocRef) {
+        NodeRef bookFolderNodeRef = newChildAssocRef.getChildRef();
+        String isbn = getName(bookFolderNodeRef);
+        boolean wasIndexed = isBookManagementYearFolder(oldChildAssocRef.getParentRef());
+        boolean isIndexed = isBookManagementYearFolder(newChildAssocRef.getParentRef());
+        if (isIndexed) {
+            indexChanged(isbn, bookFolderNodeRef);
+        } else if (wasIndexed) {
+            indexChanged(isbn, null);
+        }
+    }
+
+    @Override
+    public void onUpdateProperties(NodeRef bookFolderNodeRef,
+                                   Map<QName, Serializable> before, Map<QName, Serializable> after) {
+        String nameBefore = (String) before.get(ContentModel.PROP_NAME);
+        String nameAfter = (String) after.get(ContentModel.PROP_NAME);
+        if (nameBefore == null || EqualsHelper.nullSafeEquals(nameBefore, nameAfter)) {
+            return;
+        }
+
+        // Book folder was renamed
+        ChildAssociationRef parentAssoc = serviceRegistry.getNodeService().getPrimaryParent(bookFolderNodeRef);
+        if (isBookManagementYearFolder(parentAssoc.getParentRef())) {
+            indexChanged(nameBefore, null);
+            indexChanged(nameAfter, bookFolderNodeRef);
+        }
+    }
+
+    @Override
+    public void beforeDeleteNode(NodeRef bookFolderNodeRef) {
+        String isbn = getName(bookFolderNodeRef);
+        if (bookFolderNodeRef.equals(serviceRegistry.getAttributeService().getAttribute(ATTR_KEY_INDEX, isbn))) {
+            indexChanged(isbn, null);
+        }
+    }
+
+    /**
+     * Persist an index change now, and apply it to the in-memory index when the transaction commits.
+     *
+     * @param isbn              the ISBN
+     * @param bookFolderNodeRef the book folder, or null if the ISBN should be removed from the index
+     */
+    private void indexChanged(String isbn, NodeRef bookFolderNodeRef) {
+        if (bookFolderNodeRef == null) {
+            serviceRegistry.getAttributeService().removeAttribute(ATTR_KEY_INDEX, isbn);
+        } else {
+            serviceRegistry.getAttributeService().setAttribute(bookFolderNodeRef, ATTR_KEY_INDEX, isbn);
+        }
+
+        Map<String, NodeRef> indexChanges = AlfrescoTransactionSupport.getResource(TXN_KEY_INDEX_CHANGES);
+        if (indexChanges == null) {
+            indexChanges = new HashMap<>();
+            AlfrescoTransactionSupport.bindResource(TXN_KEY_INDEX_CHANGES, indexChanges);
+            AlfrescoTransactionSupport.bindListener(indexChangeApplier);
+        }
+        indexChanges.put(isbn, bookFolderNodeRef);
+
+        LOG.debug("ISBN [{}] book folder changed to [{}]", isbn, bookFolderNodeRef);
+    }
+
+    /**
+     * List a page of the book folders in a year folder, sorted on name so paging is stable.
+     *
+     * @param yearFolderNodeRef the year folder
+     * @param skipCount         number of book folders to skip
+     * @return a page of the book folders in the year folder, the name of a book folder is the ISBN
+     */
+    private PagingResults<FileInfo> listBookFolders(NodeRef yearFolderNodeRef, int skipCount) {
+        Set<QName> childNodeTypes = new HashSet<>();
+        childNodeTypes.add(BookFolderType.QNAME);
+        List<Pair<QName, Boolean>> sortProps = new ArrayList<>();
+        sortProps.add(new Pair<>(ContentModel.PROP_NAME, true));
+
+        return serviceRegistry.getFileFolderService().list(yearFolderNodeRef, childNodeTypes, null, sortProps,
+                new PagingRequest(skipCount, rebuildPageSize));
+    }
+
+    /**
+     * Check that a node is the book folder for an ISBN, that is it exists, has the ISBN as name,
+     * and is in a year folder in the book management document library.
+     *
+     * @param isbn              the ISBN
+     * @param bookFolderNodeRef the node to check, can be null
+     * @return true if it is the book folder for the ISBN
+     */
+    private boolean isBookFolderFor(String isbn, NodeRef bookFolderNodeRef) {
+        NodeService nodeService = serviceRegistry.getNodeService();
+        if (bookFolderNodeRef == null || !nodeService.exists(bookFolderNodeRef) ||
+                !isbn.equals(getName(bookFolderNodeRef))) {
+            return false;
+        }
+        ChildAssociationRef parentAssoc = nodeService.getPrimaryParent(bookFolderNodeRef);
+
+        return parentAssoc != null && isBookManagementYearFolder(parentAssoc.getParentRef());
+    }
+
+    /**
+     * Check if a folder is a year folder directly under the book management document library.
+     *
+     * @param folderNodeRef the folder to check
+     * @return true if it is a year folder for books
+     */
+    private boolean isBookManagementYearFolder(NodeRef folderNodeRef) {
+        NodeService nodeService = serviceRegistry.getNodeService();
+        if (folderNodeRef == null || !nodeService.exists(folderNodeRef)) {
+            return false;
+        }
+        ChildAssociationRef parentAssoc = nodeService.getPrimaryParent(folderNodeRef);
+
+        return parentAssoc != null && parentAssoc.getParentRef() != null &&
+                parentAssoc.getParentRef().equals(getBookManagementDocLib());
+    }
+
+    /**
+     * @return the book management site's document library, resolved path is cached
+     */
+    private NodeRef getBookManagementDocLib() {
+        return alfrescoRepoUtilsService.getNodeByDisplayPath(
+                "/" + SITES_NAME + "/" + BOOK_MANAGEMENT_SITE_NAME + "/" + DOCUMENT_LIBRARY_NAME);
+    }
+
+    private String getName(NodeRef nodeRef) {
+        return (String) serviceRegistry.getNodeService().getProperty(nodeRef, ContentModel.PROP_NAME);
+    }
+}
@@ -0,0 +1,201 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.cache;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.node.NodeServicePolicies;
+import org.alfresco.repo.policy.Behaviour;
+import org.alfresco.repo.policy.JavaBehaviour;
+import org.alfresco.repo.policy.PolicyComponent;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.EqualsHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cache of resolved repository paths (display paths and XPaths) to node references.
+ * <p>
+ * Entries are invalidated when a node is deleted, moved, or renamed. When the affected node is a folder
+ * the whole cache is cleared, as it could be part of any number of cached paths, otherwise just the
+ * entries pointing to the node are removed.
+ * <p>
+ * Paths resolved in a read-write transaction are only added to the cache when the transaction commits,
+ * and not at all if the transaction has deleted, moved, or renamed anything, so a node created in a
+ * transaction that is rolled back never ends up in the cache.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+@ManagedResource(description = "BestPub path to NodeRef cache")
+public class PathNodeRefCache extends BestPubCache<String, NodeRef> implements
+        NodeServicePolicies.BeforeDeleteNodePolicy,
+        NodeServicePolicies.OnMoveNodePolicy,
+        NodeServicePolicies.OnUpdatePropertiesPolicy {
+    private static final Logger LOG = LoggerFactory.getLogger(PathNodeRefCache.class);
+
+    /**
+     * Transaction resource key for paths resolved in the current transaction waiting to be cached on commit
+     */
+    private static final String TXN_KEY_PENDING_PATHS = PathNodeRefCache.class.getName() + ".pendingPaths";
+
+    /**
+     * Alfresco Services
+     */
+    private ServiceRegistry serviceRegistry;
+    private PolicyComponent policyComponent;
+
+    /**
+     * Caches paths resolved in the transaction after commit
+     */
+    private final TransactionListenerAdapter pendingPathCacher = new TransactionListenerAdapter() {
+        @Override
+        public void afterCommit() {
+            Map<String, NodeRef> pendingPaths = AlfrescoTransactionSupport.getResource(TXN_KEY_PENDING_PATHS);
+            if (pendingPaths != null && !isInvalidatedInTransaction()) {
+                for (Map.Entry<String, NodeRef> pendingPath : pendingPaths.entrySet()) {
+                    put(pendingPath.getKey(), pendingPath.getValue());
+                }
+            }
+        }
+    };
+
+    /**
+     * Spring Dependency Injection
+     */
+    public void setServiceRegistry(ServiceRegistry serviceRegistry) {
+        this.serviceRegistry = serviceRegistry;
+    }
+
+    public void setPolicyComponent(PolicyComponent policyComponent) {
+        this.policyComponent = policyComponent;
+    }
+
+    /**
+     * Spring bean init method
+     */
+    public void init() {
+        policyComponent.bindClassBehaviour(NodeServicePolicies.BeforeDeleteNodePolicy.QNAME,
+                ContentModel.TYPE_CMOBJECT,
+                new JavaBehaviour(this, "beforeDeleteNode", Behaviour.NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindClassBehaviour(NodeServicePolicies.OnMoveNodePolicy.QNAME,
+                ContentModel.TYPE_CMOBJECT,
+                new JavaBehaviour(this, "onMoveNode", Behaviour.NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindClassBehaviour(NodeServicePolicies.OnUpdatePropertiesPolicy.QNAME,
+                ContentModel.TYPE_CMOBJECT,
+                new JavaBehaviour(this, "onUpdateProperties", Behaviour.NotificationFrequency.EVERY_EVENT));
+    }
+
+    @Override
+    public void beforeDeleteNode(NodeRef nodeRef) {
+        invalidate(nodeRef);
+    }
+
+    @Override
+    public void onMoveNode(ChildAssociationRef oldChildAssocRef, ChildAssociationRef newChildAssocRef) {
+        invalidate(newChildAssocRef.getChildRef());
+    }
+
+    @Override
+    public void onUpdateProperties(NodeRef nodeRef, Map<QName, Serializable> before, Map<QName, Serializable> after) {
+        Serializable nameBefore = before.get(ContentModel.PROP_NAME);
+        if (nameBefore != null && !EqualsHelper.nullSafeEquals(nameBefore, after.get(ContentModel.PROP_NAME))) {
+            // Node was renamed
+            invalidate(nodeRef);
+        }
+    }
+
+    /**
+     * Get the node reference for a path, looking first at paths resolved earlier in the current transaction
+     * that are waiting to be cached on commit.
+     *
+     * @param path the cache key for the path
+     * @return the node reference, or null if not in cache
+     */
+    @Override
+    public NodeRef get(String path) {
+        if (AlfrescoTransactionSupport.getTransactionReadState() == AlfrescoTransactionSupport.TxnReadState.TXN_NONE) {
+            return super.get(path);
+        }
+        Map<String, NodeRef> pendingPaths = AlfrescoTransactionSupport.getResource(TXN_KEY_PENDING_PATHS);
+        if (pendingPaths != null && pendingPaths.containsKey(path)) {
+            return pendingPaths.get(path);
+        }
+
+        return super.get(path);
+    }
+
+    /**
+     * Cache a resolved path. Outside of a read-write transaction the path is cached straight away,
+     * otherwise it is cached when the transaction commits, unless something has been deleted, moved,
+     * or renamed in the transaction.
+     *
+     * @param path    the cache key for the path
+     * @param nodeRef the node reference the path resolved to
+     */
+    @Override
+    public void put(String path, NodeRef nodeRef) {
+        if (AlfrescoTransactionSupport.getTransactionReadState() != AlfrescoTransactionSupport.TxnReadState.TXN_READ_WRITE) {
+            super.put(path, nodeRef);
+            return;
+        }
+
+        if (!isCacheable(path)) {
+            // Paths could resolve differently once the changes in this transaction have been committed
+            return;
+        }
+        Map<String, NodeRef> pendingPaths = AlfrescoTransactionSupport.getResource(TXN_KEY_PENDING_PATHS);
+        if (pendingPaths == null) {
+            pendingPaths = new HashMap<>();
+            AlfrescoTransactionSupport.bindResource(TXN_KEY_PENDING_PATHS, pendingPaths);
+            AlfrescoTransactionSupport.bindListener(pendingPathCacher);
+        }
+        pendingPaths.put(path, nodeRef);
+    }
+
+    /**
+     * Remove cache entries affected by a change to passed in node, now and again when the transaction commits.
+     *
+     * @param nodeRef the node that was deleted, moved, or renamed
+     */
+    private void invalidate(NodeRef nodeRef) {
+        boolean isFolder = serviceRegistry.getDictionaryService().isSubClass(
+                serviceRegistry.getNodeService().getType(nodeRef), ContentModel.TYPE_FOLDER);
+        if (isFolder) {
+            LOG.debug("Folder [{}] deleted, moved or renamed, clearing path cache", nodeRef);
+            clearInTransaction();
+        } else {
+            LOG.debug("Node [{}] deleted, moved or renamed, removing its paths from cache", nodeRef);
+            invalidateValueInTransaction(nodeRef);
+        }
+
+        // Paths resolved earlier in this transaction might not be valid anymore
+        Map<String, NodeRef> pendingPaths = AlfrescoTransactionSupport.getResource(TXN_KEY_PENDING_PATHS);
+        if (pendingPaths != null) {
+            pendingPaths.clear();
+        }
+    }
+}
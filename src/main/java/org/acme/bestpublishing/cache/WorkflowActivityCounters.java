@@ -0,0 +1,229 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.cache;
+
+import org.acme.bestpublishing.services.AlfrescoWorkflowUtilsService;
+import org.acme.bestpublishing.services.WorkflowStatusCount;
+import org.activiti.engine.RuntimeService;
+import org.activiti.engine.delegate.event.ActivitiActivityEvent;
+import org.activiti.engine.delegate.event.ActivitiEvent;
+import org.activiti.engine.delegate.event.ActivitiEventListener;
+import org.activiti.engine.delegate.event.ActivitiEventType;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.repo.workflow.BPMEngineRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.extensions.surf.util.AbstractLifecycleBean;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Incrementally maintained counters of active workflow instances per activity for one workflow definition,
+ * so operational views can show counts such as books waiting for content without querying the database.
+ * <p>
+ * Counters are fed by Activiti activity started, completed, and cancelled events, and the changes in a
+ * transaction are only applied when it commits. Counters are seeded from a grouped query at startup,
+ * and can be resynced over JMX. Counters are kept per repository, so events handled on other cluster members
+ * are not seen, use {@link AlfrescoWorkflowUtilsService#getWorkflowStatusCounts(String, java.util.List)}
+ * for exact counts in a cluster.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+@ManagedResource(description = "BestPub workflow activity counters")
+public class WorkflowActivityCounters extends AbstractLifecycleBean implements ActivitiEventListener {
+    private static final Logger LOG = LoggerFactory.getLogger(WorkflowActivityCounters.class);
+
+    /**
+     * Transaction resource key for the counter changes to apply on commit, activity id -> change
+     */
+    private static final String TXN_KEY_COUNTER_CHANGES =
+            WorkflowActivityCounters.class.getName() + ".counterChanges";
+
+    /**
+     * Activiti services
+     */
+    private RuntimeService activitiRuntimeService;
+
+    /**
+     * Best Pub Specific services
+     */
+    private AlfrescoWorkflowUtilsService alfrescoWorkflowUtilsService;
+
+    /**
+     * Counter config
+     */
+    private boolean enabled;
+    private String workflowDefinitionName;
+
+    /**
+     * Activity id -> number of active workflow instances in it
+     */
+    private final Map<String, AtomicLong> activityCounters = new ConcurrentHashMap<>();
+    private volatile boolean synced;
+    private Date lastSyncTime;
+
+    /**
+     * Applies the transaction's counter changes on commit
+     */
+    private final TransactionListenerAdapter counterChangeApplier = new TransactionListenerAdapter() {
+        @Override
+        public void afterCommit() {
+            Map<String, Long> counterChanges = AlfrescoTransactionSupport.getResource(TXN_KEY_COUNTER_CHANGES);
+            if (counterChanges == null) {
+                return;
+            }
+            for (Map.Entry<String, Long> counterChange : counterChanges.entrySet()) {
+                if (counterChange.getValue() != 0) {
+                    activityCounters.computeIfAbsent(counterChange.getKey(), activityId -> new AtomicLong()).
+                            addAndGet(counterChange.getValue());
+                }
+            }
+        }
+    };
+
+    /**
+     * Spring Dependency Injection
+     */
+    public void setActivitiRuntimeService(RuntimeService activitiRuntimeService) {
+        this.activitiRuntimeService = activitiRuntimeService;
+    }
+
+    public void setAlfrescoWorkflowUtilsService(AlfrescoWorkflowUtilsService alfrescoWorkflowUtilsService) {
+        this.alfrescoWorkflowUtilsService = alfrescoWorkflowUtilsService;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setWorkflowDefinitionName(String workflowDefinitionName) {
+        this.workflowDefinitionName = workflowDefinitionName;
+    }
+
+    /**
+     * @param workflowDefinitionName the workflow definition name such as 'activiti$bestpub-publishing-process'
+     * @return true if counters are kept, and synced, for the workflow definition
+     */
+    public boolean isCounting(String workflowDefinitionName) {
+        return enabled && synced && this.workflowDefinitionName.equals(workflowDefinitionName);
+    }
+
+    /**
+     * @return activity id -> number of active workflow instances in the activity, activities without any left out
+     */
+    public Map<String, Long> getActivityCounts() {
+        Map<String, Long> activityCounts = new HashMap<>();
+        for (Map.Entry<String, AtomicLong> activityCounter : activityCounters.entrySet()) {
+            long count = activityCounter.getValue().get();
+            if (count > 0) {
+                activityCounts.put(activityCounter.getKey(), count);
+            }
+        }
+
+        return activityCounts;
+    }
+
+    @Override
+    protected void onBootstrap(ApplicationEvent event) {
+        if (!enabled) {
+            return;
+        }
+
+        activitiRuntimeService.addEventListener(this, ActivitiEventType.ACTIVITY_STARTED,
+                ActivitiEventType.ACTIVITY_COMPLETED, ActivitiEventType.ACTIVITY_CANCELLED);
+        resync();
+    }
+
+    @Override
+    protected void onShutdown(ApplicationEvent event) {
+        if (enabled) {
+            activitiRuntimeService.removeEventListener(this);
+        }
+    }
+
+    @Override
+    public void onEvent(ActivitiEvent event) {
+        if (!(event instanceof ActivitiActivityEvent) || !isWorkflowDefinition(event.getProcessDefinitionId())) {
+            return;
+        }
+
+        long change = event.getType() == ActivitiEventType.ACTIVITY_STARTED ? 1 : -1;
+        Map<String, Long> counterChanges = AlfrescoTransactionSupport.getResource(TXN_KEY_COUNTER_CHANGES);
+        if (counterChanges == null) {
+            counterChanges = new HashMap<>();
+            AlfrescoTransactionSupport.bindResource(TXN_KEY_COUNTER_CHANGES, counterChanges);
+            AlfrescoTransactionSupport.bindListener(counterChangeApplier);
+        }
+        counterChanges.merge(((ActivitiActivityEvent) event).getActivityId(), change, Long::sum);
+    }
+
+    @Override
+    public boolean isFailOnException() {
+        return false;
+    }
+
+    /**
+     * Reset the counters from a grouped query on the Activiti runtime tables.
+     */
+    @ManagedOperation(description = "Reset the counters from the database")
+    public void resync() {
+        List<WorkflowStatusCount> statusCounts = alfrescoWorkflowUtilsService.getWorkflowStatusCounts(
+                workflowDefinitionName, Collections.<String>emptyList());
+        activityCounters.clear();
+        for (WorkflowStatusCount statusCount : statusCounts) {
+            activityCounters.put(statusCount.getActivityId(), new AtomicLong(statusCount.getCount()));
+        }
+        synced = true;
+        lastSyncTime = new Date();
+
+        LOG.info("Synced workflow activity counters for {}: {}", workflowDefinitionName, statusCounts);
+    }
+
+    /**
+     * Managed Properties (JMX)
+     */
+    @ManagedAttribute(description = "Number of active workflow instances per activity")
+    public String getActivityCountsAsString() {
+        return getActivityCounts().toString();
+    }
+
+    @ManagedAttribute(description = "Last time the counters were synced from the database")
+    public Date getLastSyncTime() {
+        return lastSyncTime;
+    }
+
+    /**
+     * @param processDefinitionId the Activiti process definition id, such as bestpub-publishing-process:3:4608
+     * @return true if the process definition is a version of the counted workflow definition
+     */
+    private boolean isWorkflowDefinition(String processDefinitionId) {
+        return processDefinitionId != null &&
+                processDefinitionId.startsWith(BPMEngineRegistry.getLocalId(workflowDefinitionName) + ":");
+    }
+}
@@ -0,0 +1,101 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.cache;
+
+import org.acme.bestpublishing.services.WorkflowTaskSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Short time-to-live cache of the tasks pooled to groups, keyed on the query (workflow definition, sorted
+ * candidate groups, projected variables, and number of tasks), shared by all users of the publishing task
+ * dashboard that are members of the same groups. Tasks assigned to a user are never cached.
+ * <p>
+ * Concurrent requests for the same page that is not in the cache are coalesced, only the first one
+ * runs the query and the others wait for its result. Entries are not invalidated when tasks change,
+ * the time-to-live (cache.bestpubWorkflowTaskPageCache.timeToLiveSeconds) decides how stale a page can be.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+@ManagedResource(description = "BestPub workflow task query page cache")
+public class WorkflowTaskPageCache extends BestPubCache<String, List<WorkflowTaskSummary>> {
+    private static final Logger LOG = LoggerFactory.getLogger(WorkflowTaskPageCache.class);
+
+    /**
+     * Queries in progress, cache key -> result
+     */
+    private final ConcurrentMap<String, CompletableFuture<List<WorkflowTaskSummary>>> inFlightQueries =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Number of requests that waited for a query already in progress
+     */
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    /**
+     * Get a page of tasks from the cache, or run the query if not cached. If the same query is already
+     * running on another thread, wait for its result instead of running it again.
+     *
+     * @param key    the cache key for the query
+     * @param loader runs the query
+     * @return the page of tasks
+     */
+    public List<WorkflowTaskSummary> getOrLoad(String key, Supplier<List<WorkflowTaskSummary>> loader) {
+        List<WorkflowTaskSummary> tasks = get(key);
+        if (tasks != null) {
+            return tasks;
+        }
+
+        CompletableFuture<List<WorkflowTaskSummary>> query = new CompletableFuture<>();
+        CompletableFuture<List<WorkflowTaskSummary>> inFlightQuery = inFlightQueries.putIfAbsent(key, query);
+        if (inFlightQuery != null) {
+            coalescedCount.incrementAndGet();
+            LOG.debug("Waiting for task query in progress [{}]", key);
+            return inFlightQuery.join();
+        }
+
+        try {
+            tasks = loader.get();
+            put(key, tasks);
+            query.complete(tasks);
+            return tasks;
+        } catch (RuntimeException e) {
+            query.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightQueries.remove(key, query);
+        }
+    }
+
+    /**
+     * Managed Properties (JMX)
+     */
+    @ManagedAttribute(description = "Number of requests that waited for a query already in progress")
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+}
@@ -26,7 +26,7 @@ import java.util.regex.Pattern;
  */
 public interface BestPubConstants {
      int ISBN_NUMBER_LENGTH = 13;
-     Pattern ISBN_REGEXP_PATTERN = Pattern.compile("^(97[8|9]\\d{10})");
+     Pattern ISBN_REGEXP_PATTERN = Pattern.compile("^(97[89]\\d{10})");
 
     /**
      * Mime types not found in org.alfresco.repo.content.MimetypeMap
@@ -60,6 +60,7 @@ public interface BestPubConstants {
      String INCOMING_CONTENT_FOLDER_PATH = INCOMING_BASE_FOLDER_PATH + "/Content";
      String INCOMING_METADATA_FOLDER_PATH = INCOMING_BASE_FOLDER_PATH + "/Metadata";
      String INCOMING_PUBSTATUS_FOLDER_PATH = INCOMING_BASE_FOLDER_PATH + "/PublishingStatus";
+     String WORKFLOW_VARIABLES_FOLDER_NAME = "Workflow Variables";
      String PATH_TO_BESTPUB = "/app:company_home/cm:" + BESTPUB_FOLDER_NAME;
 
     /**
@@ -0,0 +1,71 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.model;
+
+import org.alfresco.service.namespace.QName;
+
+/**
+ * Best Publishing Utils Model Java wrapper class.
+ * Bookkeeping metadata maintained by this module (see model/bestpub-utils-model.xml).
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+public class BestPubUtilsModel {
+    public final static String NAMESPACE_URI = "http://www.acme.org/model/content/publishing/utils/1.0";
+    public final static String NAMESPACE_PREFIX = "bpu";
+
+    /**
+     * Content Fingerprint Aspect
+     */
+    public static final class ContentFingerprintAspect {
+        public static final QName QNAME = bpu("contentFingerprint");
+
+        private ContentFingerprintAspect() {
+        }
+
+        public static final class Prop {
+            private Prop() {
+            }
+
+            public static final QName CONTENT_HASH = bpu("contentHash");
+            public static final QName CONTENT_HASH_ALGORITHM = bpu("contentHashAlgorithm");
+            public static final QName CONTENT_HASH_URL = bpu("contentHashUrl");
+        }
+    }
+
+    /**
+     * Last Content Modified Aspect, rolled up to the book folder from all nodes under it
+     */
+    public static final class LastContentModifiedAspect {
+        public static final QName QNAME = bpu("lastContentModified");
+
+        private LastContentModifiedAspect() {
+        }
+
+        public static final class Prop {
+            private Prop() {
+            }
+
+            public static final QName LAST_CONTENT_MODIFIED = bpu("lastContentModified");
+        }
+    }
+
+    public static QName bpu(final String qname) {
+        return QName.createQName(NAMESPACE_URI, qname);
+    }
+}
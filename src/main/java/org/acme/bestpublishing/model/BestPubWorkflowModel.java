@@ -75,6 +75,11 @@ public class BestPubWorkflowModel {
     public static final String VAR_CHAPTER_FOLDER_HIERARCHY_EXISTS = "chapterFolderHierarchyExists";
     public static final String VAR_TASK_T5_EXECUTED = "TaskT5Executed";
 
+    // Message events that ingestion delivers to the waiting publishing process, correlated by ISBN,
+    // instead of the process polling for content and metadata with timers
+    public static final String MSG_CONTENT_ARRIVED = "bestpubContentArrived";
+    public static final String MSG_METADATA_ARRIVED = "bestpubMetadataArrived";
+
     // Properties that matches process variables when starting the workflow,
     // they don't have a namespace as they are process variables.
     public static final String NO_NAMESPACE = "{}";
@@ -24,7 +24,9 @@ import java.util.Properties;
  * A sortable chapter properties class.
  *
  * @author martin.bergljung@marversolutions.org
+ * @deprecated use {@link ChapterIndex}, which keeps all chapters for a book in primitive sorted arrays
  */
+@Deprecated
 public class ChapterFolderProperties extends Properties implements Comparable<ChapterFolderProperties> {
 
     @Override
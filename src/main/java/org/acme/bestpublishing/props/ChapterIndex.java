@@ -0,0 +1,254 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.props;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable index of the chapter folders for one book, sorted on chapter number when it is built.
+ * <p>
+ * Chapter data is kept in parallel arrays with primitive chapter numbers, and looking up a chapter
+ * by chapter number is a single array access. Folder names and author names are interned, as the same
+ * names occur in many books. As the index never changes it can be shared freely between threads,
+ * cached, and passed to workflows and publishing as a snapshot of the book's chapters.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+public final class ChapterIndex implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Returned when there is no chapter number, or no position for a chapter number
+     */
+    public static final int NO_CHAPTER = -1;
+
+    /**
+     * Highest chapter number that gets an entry in the lookup table, higher numbers are found with binary search
+     */
+    private static final int MAX_LOOKUP_CHAPTER_NUMBER = 9999;
+
+    /**
+     * An index without chapters
+     */
+    public static final ChapterIndex EMPTY = new Builder().build();
+
+    /**
+     * Chapter data, index is position in chapter number order. Chapters without number are last.
+     */
+    private final int[] chapterNumbers;
+    private final String[] folderNames;
+    private final String[] titles;
+    private final String[] authors;
+    private final NodeRef[] folderNodeRefs;
+
+    /**
+     * Chapter number -> position + 1, 0 if no such chapter
+     */
+    private final int[] positionLookup;
+
+    private ChapterIndex(int[] chapterNumbers, String[] folderNames, String[] titles, String[] authors,
+                         NodeRef[] folderNodeRefs, int[] positionLookup) {
+        this.chapterNumbers = chapterNumbers;
+        this.folderNames = folderNames;
+        this.titles = titles;
+        this.authors = authors;
+        this.folderNodeRefs = folderNodeRefs;
+        this.positionLookup = positionLookup;
+    }
+
+    /**
+     * @return number of chapters in the index
+     */
+    public int size() {
+        return chapterNumbers.length;
+    }
+
+    public boolean isEmpty() {
+        return chapterNumbers.length == 0;
+    }
+
+    /**
+     * Get the position of a chapter in the index.
+     *
+     * @param chapterNumber the chapter number, such as 9
+     * @return the position, or {@link #NO_CHAPTER} if there is no chapter with passed in number
+     */
+    public int indexOf(int chapterNumber) {
+        if (chapterNumber < 0) {
+            return NO_CHAPTER;
+        }
+        if (chapterNumber < positionLookup.length) {
+            return positionLookup[chapterNumber] - 1;
+        }
+
+        if (chapterNumber <= MAX_LOOKUP_CHAPTER_NUMBER) {
+            return NO_CHAPTER;
+        }
+
+        int position = Arrays.binarySearch(chapterNumbers, 0, countNumberedChapters(), chapterNumber);
+
+        return position >= 0 ? position : NO_CHAPTER;
+    }
+
+    /**
+     * Get the chapter folder for a chapter number.
+     *
+     * @param chapterNumber the chapter number, such as 9
+     * @return the chapter folder node reference, or null if there is no chapter with passed in number
+     */
+    public NodeRef getFolderNodeRefForChapter(int chapterNumber) {
+        int position = indexOf(chapterNumber);
+
+        return position == NO_CHAPTER ? null : folderNodeRefs[position];
+    }
+
+    /**
+     * Position based accessors, position 0 is the first chapter
+     */
+    public int getChapterNumber(int position) {
+        return chapterNumbers[position];
+    }
+
+    public String getFolderName(int position) {
+        return folderNames[position];
+    }
+
+    public String getTitle(int position) {
+        return titles[position];
+    }
+
+    public String getAuthor(int position) {
+        return authors[position];
+    }
+
+    public NodeRef getFolderNodeRef(int position) {
+        return folderNodeRefs[position];
+    }
+
+    /**
+     * @return the chapter folder node references in chapter number order
+     */
+    public List<NodeRef> getFolderNodeRefs() {
+        return Arrays.asList(folderNodeRefs.clone());
+    }
+
+    /**
+     * @return the number of chapters that have a chapter number, they are first in the index
+     */
+    private int countNumberedChapters() {
+        int numberedChapters = chapterNumbers.length;
+        while (numberedChapters > 0 && chapterNumbers[numberedChapters - 1] == NO_CHAPTER) {
+            numberedChapters--;
+        }
+
+        return numberedChapters;
+    }
+
+    @Override
+    public String toString() {
+        return "ChapterIndex{chapters=" + Arrays.toString(chapterNumbers) + "}";
+    }
+
+    /**
+     * Collects chapters in any order and builds the sorted index. Not thread safe.
+     */
+    public static final class Builder {
+        private final List<NodeRef> folderNodeRefs = new ArrayList<>();
+        private final List<String> folderNames = new ArrayList<>();
+        private final List<String> titles = new ArrayList<>();
+        private final List<String> authors = new ArrayList<>();
+        private int[] chapterNumbers = new int[16];
+
+        /**
+         * Add a chapter folder.
+         *
+         * @param chapterNumber  the chapter number, or {@link #NO_CHAPTER} if it does not have one
+         * @param folderName     the chapter folder name, such as chapter-9
+         * @param title          the chapter title, can be null
+         * @param author         the chapter author, can be null
+         * @param folderNodeRef  the chapter folder node reference
+         * @return this builder
+         */
+        public Builder addChapter(int chapterNumber, String folderName, String title, String author,
+                                  NodeRef folderNodeRef) {
+            int position = folderNodeRefs.size();
+            if (position == chapterNumbers.length) {
+                chapterNumbers = Arrays.copyOf(chapterNumbers, position * 2);
+            }
+            chapterNumbers[position] = chapterNumber < 0 ? NO_CHAPTER : chapterNumber;
+            folderNames.add(folderName == null ? null : folderName.intern());
+            titles.add(title);
+            authors.add(author == null ? null : author.intern());
+            folderNodeRefs.add(folderNodeRef);
+
+            return this;
+        }
+
+        /**
+         * Sort chapters on chapter number and build the index.
+         *
+         * @return the immutable chapter index
+         */
+        public ChapterIndex build() {
+            int size = folderNodeRefs.size();
+
+            // Sort on unsigned chapter number in the high bits and position in the low 31 bits, so equal numbers keep
+            // insertion order. NO_CHAPTER (-1) as unsigned is the highest number, so chapters without number are last
+            long[] sortKeys = new long[size];
+            for (int i = 0; i < size; i++) {
+                sortKeys[i] = ((chapterNumbers[i] & 0xFFFFFFFFL) << 31) | i;
+            }
+            Arrays.sort(sortKeys);
+
+            int[] sortedChapterNumbers = new int[size];
+            String[] sortedFolderNames = new String[size];
+            String[] sortedTitles = new String[size];
+            String[] sortedAuthors = new String[size];
+            NodeRef[] sortedFolderNodeRefs = new NodeRef[size];
+            int maxLookupChapterNumber = NO_CHAPTER;
+            for (int i = 0; i < size; i++) {
+                int position = (int) (sortKeys[i] & Integer.MAX_VALUE);
+                sortedChapterNumbers[i] = chapterNumbers[position];
+                sortedFolderNames[i] = folderNames.get(position);
+                sortedTitles[i] = titles.get(position);
+                sortedAuthors[i] = authors.get(position);
+                sortedFolderNodeRefs[i] = folderNodeRefs.get(position);
+                if (sortedChapterNumbers[i] <= MAX_LOOKUP_CHAPTER_NUMBER) {
+                    maxLookupChapterNumber = Math.max(maxLookupChapterNumber, sortedChapterNumbers[i]);
+                }
+            }
+
+            int[] positionLookup = new int[maxLookupChapterNumber + 1];
+            for (int i = size - 1; i >= 0; i--) {
+                int chapterNumber = sortedChapterNumbers[i];
+                if (chapterNumber != NO_CHAPTER && chapterNumber <= MAX_LOOKUP_CHAPTER_NUMBER) {
+                    // Going backwards so the first chapter wins if there are duplicate chapter numbers
+                    positionLookup[chapterNumber] = i + 1;
+                }
+            }
+
+            return new ChapterIndex(sortedChapterNumbers, sortedFolderNames, sortedTitles, sortedAuthors,
+                    sortedFolderNodeRefs, positionLookup);
+        }
+    }
+}
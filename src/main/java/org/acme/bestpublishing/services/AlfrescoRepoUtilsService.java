@@ -18,13 +18,21 @@ package org.acme.bestpublishing.services;
 
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.namespace.QName;
+import org.springframework.extensions.webscripts.WebScriptRequest;
 import org.springframework.extensions.webscripts.WebScriptResponse;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Stream;
 
 /**
  * Helper methods when interacting with the Alfresco repository, such as searching for a node via display path.
@@ -34,6 +42,36 @@ import java.util.Set;
  */
 public interface AlfrescoRepoUtilsService {
 
+    /**
+     * Callback used to stream JSON to a web script response.
+     */
+    interface JsonWriterCallback {
+        /**
+         * Write JSON to the passed in writer, the writer is flushed and closed by the caller.
+         *
+         * @param writer UTF-8 writer on the response output stream
+         * @throws IOException if JSON could not be written
+         */
+        void writeJson(Writer writer) throws IOException;
+    }
+
+    /**
+     * Callback used to process document content as a stream of bytes, without copying it onto the heap.
+     *
+     * @param <R> the result type
+     */
+    interface ContentChannelCallback<R> {
+        /**
+         * Process the document content. The channel is closed after the callback returns.
+         *
+         * @param channel channel to read the document content from
+         * @param size    the size of the document content in bytes
+         * @return result of the processing
+         * @throws IOException if content could not be read
+         */
+        R doWithContent(ReadableByteChannel channel, long size) throws IOException;
+    }
+
     /**
      * @return The {@link NodeRef} of companyHome.
      */
@@ -46,6 +84,7 @@ public interface AlfrescoRepoUtilsService {
 
     /**
      * Resolves a node reference in the 'workspace://SpacesStore' via its display path.
+     * Resolved paths are cached until the node, or a folder, is deleted, moved, or renamed.
      *
      * @param path the display path excluding /Company Home and store,
      *             such as for example "Data Dictionary/Email Templates"
@@ -124,6 +163,21 @@ public interface AlfrescoRepoUtilsService {
     NodeRef createFile(NodeRef parentFolderNodeRef, File file);
     NodeRef createFile(NodeRef parentFolderNodeRef, String filename, InputStream fileInputStream);
 
+    /**
+     * Creates many file nodes in the passed in parent folder.
+     * <p>
+     * Existing files are found with one child lookup for all the names, content is written to the content store
+     * in parallel on a bounded thread pool, and then the nodes are created in batches with the written content.
+     * If there is no transaction in place each batch of nodes is created in its own transaction.
+     * Content written for files that do not get a node is removed from the content store. If the calling thread
+     * is interrupted no more files are created, and the files not yet created are reported as failed.
+     *
+     * @param parentFolderNodeRef folder to add the files to
+     * @param fileSpecs           the files to create, name and content
+     * @return a result for each file spec, in the same order as the file specs
+     */
+    List<FileCreationResult> createFiles(NodeRef parentFolderNodeRef, Stream<FileSpec> fileSpecs);
+
     /**
      * Creates a file node in the passed in parent folder with passed in filename and content.
      *
@@ -138,7 +192,7 @@ public interface AlfrescoRepoUtilsService {
 
     /**
      * Does a Lucene query with passed in query expression.
-     * If more than one node matches then the first one is returned.
+     * If more than one node matches then the first one is returned, only one result is fetched from the index.
      *
      * @param query Lucene query matching one node
      * @return the Alfresco node reference for the matching node, or null if no nodes matched
@@ -154,7 +208,29 @@ public interface AlfrescoRepoUtilsService {
     List<NodeRef> search(String query);
 
     /**
-     * Returns true if the user 'username' is a part of the group 'groupName'
+     * Does a Lucene query with passed in query expression and returns a lazy iterator over the matching nodes.
+     * Results are fetched one page at a time, and each page is closed before the next one is fetched,
+     * so memory use stays flat regardless of number of matching nodes.
+     *
+     * @param query    Lucene query
+     * @param pageSize number of nodes to fetch per page
+     * @return iterator over the Alfresco node references that matched query
+     */
+    Iterator<NodeRef> searchIterator(String query, int pageSize);
+
+    /**
+     * Does a Lucene query with passed in query expression and returns a lazy stream of the matching nodes,
+     * fetched with the default page size.
+     *
+     * @param query Lucene query
+     * @return stream of the Alfresco node references that matched query
+     * @see #searchIterator(String, int)
+     */
+    Stream<NodeRef> searchStream(String query);
+
+    /**
+     * Returns true if the user 'username' is a part of the group 'groupName'.
+     * The user's authorities are cached, and invalidated when group membership changes.
      *
      * @param username  username for the user
      * @param groupName the name of the group to search in
@@ -162,6 +238,16 @@ public interface AlfrescoRepoUtilsService {
      */
     boolean isPartOfGroup(String username, String groupName);
 
+    /**
+     * Checks if the user 'username' is a part of each one of the passed in groups.
+     * The user's authorities are resolved once for all the groups.
+     *
+     * @param username   username for the user
+     * @param groupNames the names of the groups to check, such as GROUP_PUBLISHERS
+     * @return group name -> true if the user is a part of the group, false otherwise
+     */
+    Map<String, Boolean> isPartOfGroups(String username, Collection<String> groupNames);
+
     /**
      * Create a file with xml mimetype.
      *
@@ -174,6 +260,7 @@ public interface AlfrescoRepoUtilsService {
     /**
      * Finds a node from a path in the following format:
      * /app:company_home/app:dictionary/cm:BOPP/cm:Incoming/cm:Content/cm:Logs
+     * Resolved paths are cached until the node, or a folder, is deleted, moved, or renamed.
      *
      * @param path Path to file/folder with namespace prefixes (eg: "cm:")
      * @return NodeRef of the node at the path specified or null if no or multiple nodes are found.
@@ -182,16 +269,32 @@ public interface AlfrescoRepoUtilsService {
 
     /**
      * Copy and overwrite the set of aspects from source to destination.
+     * Source and destination properties are read once, and only properties that differ are written.
      *
-     * @param sourceNodeRef
-     * @param destNodeRef
-     * @param aspects
+     * @param sourceNodeRef the node to copy aspect properties from
+     * @param destNodeRef   the node to copy aspect properties to
+     * @param aspects       the aspects to copy
      */
     void copyAspects(NodeRef sourceNodeRef, NodeRef destNodeRef, Set<QName> aspects);
 
+    /**
+     * Copy and overwrite the set of aspects for a whole node tree, such as all the folders and files for an ISBN.
+     * Source and destination nodes are matched by name, starting with the passed in root nodes,
+     * nodes that only exist in one of the trees are skipped.
+     * <p>
+     * If there is no transaction in place the nodes are updated in batches, each in its own transaction.
+     *
+     * @param sourceRootNodeRef root of the tree to copy aspect properties from
+     * @param destRootNodeRef   root of the tree to copy aspect properties to
+     * @param aspects           the aspects to copy
+     * @return number of destination nodes that were updated
+     */
+    int copyAspectsInTree(NodeRef sourceRootNodeRef, NodeRef destRootNodeRef, Set<QName> aspects);
+
     /**
      * Compares the bytes of two content files and returns true if they are the same.
-     * Uses MD5 hash to determine if they are equal.
+     * Compares content URL and size first, and then the stored content fingerprints (SHA-256),
+     * which are computed and stored on first use for files that do not have one yet.
      *
      * @param file1NodeRef the first file node reference
      * @param file2NodeRef the second file node reference
@@ -208,11 +311,63 @@ public interface AlfrescoRepoUtilsService {
      */
     void writeJsonResponse(WebScriptResponse response, String json) throws IOException;
 
+    /**
+     * Streams JSON directly to the response output stream, so the JSON is never held in memory as a whole.
+     * No Content-Length is set, so the response is sent with chunked transfer encoding.
+     * Content is gzip compressed if the client accepts it.
+     * <p>
+     * If an ETag is passed in and it matches the request If-None-Match header then
+     * 304 Not Modified is returned and the JSON writer is never called.
+     *
+     * @param request    WebScript request, used for Accept-Encoding and If-None-Match headers
+     * @param response   WebScript response
+     * @param etag       ETag for the JSON payload, such as a modified date, or null if no ETag should be used
+     * @param jsonWriter callback that writes the JSON
+     * @throws IOException
+     */
+    void writeJsonResponse(WebScriptRequest request, WebScriptResponse response, String etag,
+                           JsonWriterCallback jsonWriter) throws IOException;
+
     /**
      * Get the content bytes for the document with passed in node reference.
+     * The whole document is loaded onto the heap, for large documents use
+     * {@link #readContent(NodeRef, ContentChannelCallback)} or {@link #mapContent(NodeRef)} instead.
      *
      * @param documentRef the node reference for the document we want the content bytes for
      * @return a byte array containing the document content or null if not found
      */
     byte[] getDocumentContentBytes(NodeRef documentRef);
+
+    /**
+     * Process the content for the document with passed in node reference as a channel.
+     *
+     * @param documentRef the node reference for the document we want to read content for
+     * @param callback    the callback that processes the content
+     * @param <R>         the result type
+     * @return the result from the callback, or null if document has no content
+     * @throws IOException if content could not be read
+     */
+    <R> R readContent(NodeRef documentRef, ContentChannelCallback<R> callback) throws IOException;
+
+    /**
+     * Memory-map the content for the document with passed in node reference.
+     * Only possible when the content is stored in a file content store, and is less than 2GB.
+     *
+     * @param documentRef the node reference for the document we want to map content for
+     * @return a read-only buffer mapped onto the content file, or null if content cannot be mapped
+     * @throws IOException if content file could not be mapped
+     */
+    ByteBuffer mapContent(NodeRef documentRef) throws IOException;
+
+    /**
+     * Read a range of the content for the document with passed in node reference.
+     *
+     * @param documentRef the node reference for the document we want to read content for
+     * @param offset      position in the content to start reading from
+     * @param length      max number of bytes to read
+     * @return buffer with the content range, ready to be read, shorter than length if end of content was reached,
+     * or null if document has no content
+     * @throws IOException if content could not be read
+     */
+    ByteBuffer readContentRange(NodeRef documentRef, long offset, int length) throws IOException;
 }
\ No newline at end of file
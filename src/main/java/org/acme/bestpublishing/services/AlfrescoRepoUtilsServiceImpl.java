@@ -18,26 +18,51 @@ package org.acme.bestpublishing.services;
 
 import org.alfresco.model.ContentModel;
 import org.alfresco.repo.content.MimetypeMap;
+import org.alfresco.repo.content.cleanup.EagerContentStoreCleaner;
+import org.alfresco.repo.content.filestore.FileContentReader;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
 import org.alfresco.service.ServiceRegistry;
-import org.alfresco.service.cmr.dictionary.PropertyDefinition;
+import org.alfresco.service.cmr.dictionary.AspectDefinition;
 import org.alfresco.service.cmr.repository.*;
+import org.alfresco.service.cmr.search.LimitBy;
 import org.alfresco.service.cmr.search.ResultSet;
+import org.alfresco.service.cmr.search.SearchParameters;
 import org.alfresco.service.cmr.search.SearchService;
 import org.alfresco.service.namespace.NamespaceService;
 import org.alfresco.service.namespace.QName;
-import org.apache.commons.io.IOUtils;
+import org.alfresco.service.namespace.RegexQNamePattern;
 import org.apache.commons.lang.StringUtils;
-import org.apache.tika.Tika;
+import org.acme.bestpublishing.cache.AuthorityMembershipCache;
+import org.acme.bestpublishing.cache.PathNodeRefCache;
 import org.acme.bestpublishing.constants.BestPubConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptRequest;
 import org.springframework.extensions.webscripts.WebScriptResponse;
 
 import java.io.*;
 import java.io.FileNotFoundException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.Channel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Implementation of the Alfresco repository helper, which manages and searches for stuff in local Alfresco repository.
@@ -52,25 +77,99 @@ public class AlfrescoRepoUtilsServiceImpl implements AlfrescoRepoUtilsService {
     private static Logger LOG = LoggerFactory.getLogger(AlfrescoRepoUtilsServiceImpl.class);
 
     /**
-     * Hash type to use when computing content hash that will be used to compare content files for equality
+     * Empty JSON object
      */
-    private static final String MD5_HASH_TYPE = "md5";
+    private static final String EMPTY_JSON = "{}";
 
     /**
-     * Buffer when reading content bytes
+     * HTTP headers and values used when streaming JSON responses
      */
-    private static final int BUFFER_SIZE = 4096;
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_VARY = "Vary";
+    private static final String GZIP_ENCODING = "gzip";
 
     /**
-     * Empty JSON object
+     * Buffer used when streaming JSON responses
      */
-    private static final String EMPTY_JSON = "{}";
+    private static final int JSON_RESPONSE_BUFFER_SIZE = 8192;
+
+    /**
+     * Path cache key prefixes, keeps display paths and XPaths apart in the path cache
+     */
+    private static final String DISPLAY_PATH_CACHE_KEY_PREFIX = "display:";
+    private static final String XPATH_CACHE_KEY_PREFIX = "xpath:";
+    private static final String COMPANY_HOME_CACHE_KEY = "companyhome";
+    private static final String DATA_DICTIONARY_CACHE_KEY = "datadictionary";
+
+    /**
+     * Default number of nodes to fetch per page when streaming search results
+     */
+    private static final int DEFAULT_SEARCH_PAGE_SIZE = 500;
+
+    /**
+     * Buffer when skipping content in channels that cannot be positioned
+     */
+    private static final int CONTENT_SKIP_BUFFER_SIZE = 8192;
+
+    /**
+     * Default number of nodes to update per transaction when copying aspects for a node tree
+     */
+    private static final int DEFAULT_COPY_ASPECTS_BATCH_SIZE = 200;
+
+    /**
+     * Default number of nodes to create per batch when creating many files
+     */
+    private static final int DEFAULT_CREATE_FILES_BATCH_SIZE = 100;
+
+    /**
+     * Content write states when creating many files, a write is skipped if the caller is interrupted
+     * before it starts running
+     */
+    private static final int WRITE_NOT_STARTED = 0;
+    private static final int WRITE_RUNNING = 1;
+    private static final int WRITE_SKIPPED = 2;
 
     /**
      * Alfresco Services
      */
     private ServiceRegistry serviceRegistry;
 
+    /**
+     * Cache of resolved paths
+     */
+    private PathNodeRefCache pathNodeRefCache;
+
+    /**
+     * Cache of user authorities, used for group membership checks
+     */
+    private AuthorityMembershipCache authorityMembershipCache;
+
+    /**
+     * Best Publishing Services
+     */
+    private MimetypeDetectionService mimetypeDetectionService;
+    private ContentFingerprintService contentFingerprintService;
+
+    /**
+     * Number of nodes to fetch per page when streaming search results
+     */
+    private int searchPageSize = DEFAULT_SEARCH_PAGE_SIZE;
+
+    /**
+     * Bulk file creation, thread pool for content writes and nodes per batch
+     */
+    private ExecutorService contentWriterExecutor;
+    private int createFilesBatchSize = DEFAULT_CREATE_FILES_BATCH_SIZE;
+    private EagerContentStoreCleaner eagerContentStoreCleaner;
+
+    /**
+     * Aspect copy, nodes per transaction
+     */
+    private int copyAspectsBatchSize = DEFAULT_COPY_ASPECTS_BATCH_SIZE;
+
     /**
      * Spring Setter Injection
      */
@@ -78,19 +177,77 @@ public class AlfrescoRepoUtilsServiceImpl implements AlfrescoRepoUtilsService {
         this.serviceRegistry = serviceRegistry;
     }
 
+    public void setPathNodeRefCache(PathNodeRefCache pathNodeRefCache) {
+        this.pathNodeRefCache = pathNodeRefCache;
+    }
+
+    public void setAuthorityMembershipCache(AuthorityMembershipCache authorityMembershipCache) {
+        this.authorityMembershipCache = authorityMembershipCache;
+    }
+
+    public void setMimetypeDetectionService(MimetypeDetectionService mimetypeDetectionService) {
+        this.mimetypeDetectionService = mimetypeDetectionService;
+    }
+
+    public void setContentFingerprintService(ContentFingerprintService contentFingerprintService) {
+        this.contentFingerprintService = contentFingerprintService;
+    }
+
+    public void setSearchPageSize(int searchPageSize) {
+        this.searchPageSize = searchPageSize;
+    }
+
+    public void setContentWriterExecutor(ExecutorService contentWriterExecutor) {
+        this.contentWriterExecutor = contentWriterExecutor;
+    }
+
+    public void setCreateFilesBatchSize(int createFilesBatchSize) {
+        this.createFilesBatchSize = createFilesBatchSize;
+    }
+
+    public void setEagerContentStoreCleaner(EagerContentStoreCleaner eagerContentStoreCleaner) {
+        this.eagerContentStoreCleaner = eagerContentStoreCleaner;
+    }
+
+    public void setCopyAspectsBatchSize(int copyAspectsBatchSize) {
+        this.copyAspectsBatchSize = copyAspectsBatchSize;
+    }
+
     @Override
     public NodeRef getCompanyHome() {
-        return serviceRegistry.getNodeLocatorService().getNode("companyhome", null, null);
+        NodeRef companyHome = pathNodeRefCache.get(COMPANY_HOME_CACHE_KEY);
+        if (companyHome == null) {
+            companyHome = serviceRegistry.getNodeLocatorService().getNode("companyhome", null, null);
+            if (companyHome != null) {
+                pathNodeRefCache.put(COMPANY_HOME_CACHE_KEY, companyHome);
+            }
+        }
+
+        return companyHome;
     }
 
     @Override
     public NodeRef getDataDictionary() {
-        return serviceRegistry.getNodeService().getChildByName(getCompanyHome(), ContentModel.ASSOC_CONTAINS,
-                BestPubConstants.DATA_DICTIONARY_NAME);
+        NodeRef dataDictionary = pathNodeRefCache.get(DATA_DICTIONARY_CACHE_KEY);
+        if (dataDictionary == null) {
+            dataDictionary = serviceRegistry.getNodeService().getChildByName(getCompanyHome(),
+                    ContentModel.ASSOC_CONTAINS, BestPubConstants.DATA_DICTIONARY_NAME);
+            if (dataDictionary != null) {
+                pathNodeRefCache.put(DATA_DICTIONARY_CACHE_KEY, dataDictionary);
+            }
+        }
+
+        return dataDictionary;
     }
 
     @Override
     public NodeRef getNodeByDisplayPath(String path) {
+        String cacheKey = DISPLAY_PATH_CACHE_KEY_PREFIX + path;
+        NodeRef cachedNodeRef = pathNodeRefCache.get(cacheKey);
+        if (cachedNodeRef != null) {
+            return cachedNodeRef;
+        }
+
         String nodePath = path;
         // Make sure path does not start with /
         if (path.startsWith("/")) {
@@ -109,6 +266,10 @@ public class AlfrescoRepoUtilsServiceImpl implements AlfrescoRepoUtilsService {
             LOG.error("Could not get NodeRef for path: " + path, e);
         }
 
+        if (nodeRef != null) {
+            pathNodeRefCache.put(cacheKey, nodeRef);
+        }
+
         return nodeRef;
     }
 
@@ -220,16 +381,21 @@ public class AlfrescoRepoUtilsServiceImpl implements AlfrescoRepoUtilsService {
             // Get the MIMEType for the file we are adding
             // Note. There is a bug in Files.probeContentType so it always returns plain/text on Ubuntu 11
             // String mimeType = Files.probeContentType(file.toPath());
-            Tika tika = new Tika();
-            String mimeType = tika.detect(fileInputStream, filename);
-            LOG.debug("Mime type for [{}] is [{}]", filename, mimeType);
+            InputStream contentStream = fileInputStream.markSupported() ?
+                    fileInputStream : new BufferedInputStream(fileInputStream);
+            String mimeType = mimetypeDetectionService.detectMimetype(filename, contentStream);
 
             // Set content bytes for the new file node
             boolean updateContentPropertyAutomatically = true;
             ContentWriter writer = serviceRegistry.getContentService().getWriter(
                     newFileNodeRef, ContentModel.PROP_CONTENT, updateContentPropertyAutomatically);
             writer.setMimetype(mimeType);
-            writer.putContent(fileInputStream); // Closes streams
+
+            // Compute the content fingerprint while the content is written
+            DigestInputStream digestStream =
+                    new DigestInputStream(contentStream, contentFingerprintService.createDigest());
+            writer.putContent(digestStream); // Closes streams
+            contentFingerprintService.storeFingerprint(newFileNodeRef, digestStream.getMessageDigest().digest());
         } catch (IOException ioe) {
             LOG.error("Error determining mime type for file [" + filename + "]", ioe);
         }
@@ -237,6 +403,144 @@ public class AlfrescoRepoUtilsServiceImpl implements AlfrescoRepoUtilsService {
         return newFileNodeRef;
     }
 
+    @Override
+    public List<FileCreationResult> createFiles(final NodeRef parentFolderNodeRef, Stream<FileSpec> fileSpecs) {
+        long startTime = System.currentTimeMillis();
+        List<FileSpec> specs = fileSpecs.collect(Collectors.toList());
+        LOG.debug("Creating [{}] files in [{}]", specs.size(), parentFolderNodeRef);
+
+        // Find existing files with one lookup for all names
+        Set<String> filenames = new HashSet<>();
+        for (FileSpec spec : specs) {
+            filenames.add(spec.getFilename());
+        }
+        Map<String, NodeRef> existingFiles = new HashMap<>();
+        for (ChildAssociationRef existingFileAssoc : serviceRegistry.getNodeService().getChildrenByName(
+                parentFolderNodeRef, ContentModel.ASSOC_CONTAINS, filenames)) {
+            NodeRef existingFile = existingFileAssoc.getChildRef();
+            existingFiles.put((String) serviceRegistry.getNodeService().getProperty(
+                    existingFile, ContentModel.PROP_NAME), existingFile);
+        }
+
+        // Write the content for new files in parallel, each write in its own transaction
+        final String currentUser = AuthenticationUtil.getFullyAuthenticatedUser();
+        final RetryingTransactionHelper txnHelper = serviceRegistry.getRetryingTransactionHelper();
+        final AtomicIntegerArray writeStates = new AtomicIntegerArray(specs.size());
+        Map<Integer, Future<WrittenContent>> contentWrites = new LinkedHashMap<>();
+        Set<String> filenamesToCreate = new HashSet<>();
+        for (int i = 0; i < specs.size(); i++) {
+            final int specIndex = i;
+            final FileSpec spec = specs.get(i);
+            if (existingFiles.containsKey(spec.getFilename()) || !filenamesToCreate.add(spec.getFilename())) {
+                continue;
+            }
+            contentWrites.put(i, contentWriterExecutor.submit(() -> {
+                // Don't write the content if the caller was interrupted before the write got to run
+                if (!writeStates.compareAndSet(specIndex, WRITE_NOT_STARTED, WRITE_RUNNING)) {
+                    return null;
+                }
+                return AuthenticationUtil.runAs(
+                        () -> txnHelper.doInTransaction(() -> writeContent(spec), false, true), currentUser);
+            }));
+        }
+
+        // Content written for files that end up without a node is removed from the content store
+        final Map<Integer, WrittenContent> allWrittenContents = new HashMap<>();
+        if (AlfrescoTransactionSupport.getTransactionReadState() != AlfrescoTransactionSupport.TxnReadState.TXN_NONE) {
+            AlfrescoTransactionSupport.bindListener(new TransactionListenerAdapter() {
+                @Override
+                public void afterRollback() {
+                    deleteOrphanedContent(allWrittenContents.values());
+                }
+            });
+        }
+
+        // Create the nodes, in batches, with the written content
+        final FileCreationResult[] results = new FileCreationResult[specs.size()];
+        final Map<Integer, WrittenContent> writtenContents = new LinkedHashMap<>();
+        boolean interrupted = false;
+        long totalBytes = 0;
+        for (int i = 0; i < specs.size(); i++) {
+            FileSpec spec = specs.get(i);
+            Future<WrittenContent> contentWrite = contentWrites.get(i);
+            if (contentWrite == null) {
+                NodeRef existingFile = existingFiles.get(spec.getFilename());
+                LOG.debug("File [{}] already exists in [{}]", spec.getFilename(), parentFolderNodeRef);
+                results[i] = new FileCreationResult(spec.getFilename(),
+                        FileCreationResult.Status.ALREADY_EXISTS, existingFile, null);
+                continue;
+            }
+
+            while (results[i] == null && !writtenContents.containsKey(i)) {
+                if (writeStates.get(i) == WRITE_SKIPPED) {
+                    results[i] = new FileCreationResult(spec.getFilename(), FileCreationResult.Status.FAILED, null,
+                            "File creation was interrupted");
+                    break;
+                }
+                try {
+                    WrittenContent writtenContent = contentWrite.get();
+                    allWrittenContents.put(i, writtenContent);
+                    if (interrupted) {
+                        results[i] = new FileCreationResult(spec.getFilename(), FileCreationResult.Status.FAILED,
+                                null, "File creation was interrupted");
+                    } else {
+                        totalBytes += writtenContent.contentData.getSize();
+                        writtenContents.put(i, writtenContent);
+                    }
+                } catch (InterruptedException ie) {
+                    // Stop, skip the content writes that have not started,
+                    // and wait for the running ones so their content can be removed
+                    LOG.warn("Interrupted while creating files in [{}], stopping", parentFolderNodeRef);
+                    interrupted = true;
+                    for (Map.Entry<Integer, Future<WrittenContent>> pendingWrite : contentWrites.entrySet()) {
+                        if (writeStates.compareAndSet(pendingWrite.getKey(), WRITE_NOT_STARTED, WRITE_SKIPPED)) {
+                            pendingWrite.getValue().cancel(false);
+                        }
+                    }
+                    if (!writtenContents.isEmpty()) {
+                        for (Integer writtenIndex : writtenContents.keySet()) {
+                            results[writtenIndex] = new FileCreationResult(specs.get(writtenIndex).getFilename(),
+                                    FileCreationResult.Status.FAILED, null, "File creation was interrupted");
+                        }
+                        writtenContents.clear();
+                    }
+                } catch (ExecutionException ee) {
+                    results[i] = failedFileCreation(spec, ee.getCause());
+                }
+            }
+
+            if (writtenContents.size() >= createFilesBatchSize) {
+                createFileNodes(parentFolderNodeRef, specs, writtenContents, results);
+                writtenContents.clear();
+            }
+        }
+        if (!writtenContents.isEmpty()) {
+            createFileNodes(parentFolderNodeRef, specs, writtenContents, results);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Remove the content written for files whose node could not be created
+        List<WrittenContent> orphanedContents = new ArrayList<>();
+        int createdCount = 0;
+        for (int i = 0; i < results.length; i++) {
+            if (results[i].getStatus() == FileCreationResult.Status.CREATED) {
+                createdCount++;
+            } else if (allWrittenContents.containsKey(i)) {
+                orphanedContents.add(allWrittenContents.get(i));
+            }
+        }
+        deleteOrphanedContent(orphanedContents);
+
+        long elapsedMillis = Math.max(1, System.currentTimeMillis() - startTime);
+        LOG.info("Created [{}] of [{}] files in [{}] in [{}ms], [{} files/s][{} KB/s]", new Object[]{
+                createdCount, specs.size(), parentFolderNodeRef, elapsedMillis,
+                (createdCount * 1000L) / elapsedMillis, (totalBytes * 1000L / 1024) / elapsedMillis});
+
+        return Arrays.asList(results);
+    }
+
     @Override
     public NodeRef createFile(NodeRef parentFolderNodeRef, String filename,
                               String mimeType, String content) {
@@ -257,15 +561,185 @@ public class AlfrescoRepoUtilsServiceImpl implements AlfrescoRepoUtilsService {
         return newFileNodeRef;
     }
 
+    /**
+     * Content written to the content store for a file that has not yet got a node
+     */
+    private static class WrittenContent {
+        private final ContentData contentData;
+        private final byte[] digest;
+
+        private WrittenContent(ContentData contentData, byte[] digest) {
+            this.contentData = contentData;
+            this.digest = digest;
+        }
+    }
+
+    /**
+     * Write content for a file spec to the content store, without any node.
+     * Mimetype is detected and fingerprint computed while the content is written.
+     *
+     * @param spec the file spec
+     * @return the written content, to be set on the new file node
+     * @throws IOException if the content could not be read
+     */
+    private WrittenContent writeContent(FileSpec spec) throws IOException {
+        InputStream contentStream = new BufferedInputStream(spec.getContentSource().openStream());
+        try {
+            String mimeType = spec.getMimetype() != null ? spec.getMimetype() :
+                    mimetypeDetectionService.detectMimetype(spec.getFilename(), contentStream);
+            ContentWriter writer = serviceRegistry.getContentService().getWriter(null, null, false);
+            writer.setMimetype(mimeType);
+            DigestInputStream digestStream =
+                    new DigestInputStream(contentStream, contentFingerprintService.createDigest());
+            writer.putContent(digestStream); // Closes streams
+
+            return new WrittenContent(writer.getContentData(), digestStream.getMessageDigest().digest());
+        } finally {
+            contentStream.close();
+        }
+    }
+
+    /**
+     * Remove content written to the content store for files that did not get a node,
+     * the content is deleted when the transaction registering it commits.
+     *
+     * @param orphanedContents the written content that no node references
+     */
+    private void deleteOrphanedContent(final Collection<WrittenContent> orphanedContents) {
+        if (orphanedContents.isEmpty()) {
+            return;
+        }
+
+        try {
+            serviceRegistry.getRetryingTransactionHelper().doInTransaction(() -> {
+                for (WrittenContent orphanedContent : orphanedContents) {
+                    eagerContentStoreCleaner.registerOrphanedContentUrl(
+                            orphanedContent.contentData.getContentUrl(), true);
+                }
+                return null;
+            }, false, true);
+            LOG.debug("Removing [{}] orphaned content written for files that were not created",
+                    orphanedContents.size());
+        } catch (RuntimeException re) {
+            for (WrittenContent orphanedContent : orphanedContents) {
+                LOG.error("Could not remove orphaned content [{}]", orphanedContent.contentData.getContentUrl());
+            }
+            LOG.error("Could not remove orphaned content", re);
+        }
+    }
+
+    /**
+     * Create file nodes for a batch of written content. Runs in the current transaction if there is one,
+     * otherwise in a new transaction. If the batch transaction fails the files are created one by one,
+     * so one bad file does not fail the whole batch.
+     *
+     * @param parentFolderNodeRef folder to add the files to
+     * @param specs               all the file specs
+     * @param writtenContents     file spec index -> written content, for the files in this batch
+     * @param results             file creation results, indexed as the file specs
+     */
+    private void createFileNodes(final NodeRef parentFolderNodeRef, final List<FileSpec> specs,
+                                 final Map<Integer, WrittenContent> writtenContents,
+                                 final FileCreationResult[] results) {
+        if (AlfrescoTransactionSupport.getTransactionReadState() != AlfrescoTransactionSupport.TxnReadState.TXN_NONE) {
+            for (Map.Entry<Integer, WrittenContent> writtenContent : writtenContents.entrySet()) {
+                int i = writtenContent.getKey();
+                try {
+                    results[i] = createFileNode(parentFolderNodeRef, specs.get(i), writtenContent.getValue());
+                } catch (RuntimeException re) {
+                    results[i] = failedFileCreation(specs.get(i), re);
+                    throw re;
+                }
+            }
+            return;
+        }
+
+        RetryingTransactionHelper txnHelper = serviceRegistry.getRetryingTransactionHelper();
+        try {
+            Map<Integer, FileCreationResult> batchResults = txnHelper.doInTransaction(() -> {
+                Map<Integer, FileCreationResult> createdFiles = new HashMap<>();
+                for (Map.Entry<Integer, WrittenContent> writtenContent : writtenContents.entrySet()) {
+                    int i = writtenContent.getKey();
+                    createdFiles.put(i, createFileNode(parentFolderNodeRef, specs.get(i), writtenContent.getValue()));
+                }
+                return createdFiles;
+            }, false, true);
+            for (Map.Entry<Integer, FileCreationResult> batchResult : batchResults.entrySet()) {
+                results[batchResult.getKey()] = batchResult.getValue();
+            }
+        } catch (RuntimeException batchException) {
+            LOG.warn("Could not create batch of [{}] files in [{}], creating them one by one [error={}]",
+                    new Object[]{writtenContents.size(), parentFolderNodeRef, batchException.getMessage()});
+            for (Map.Entry<Integer, WrittenContent> writtenContent : writtenContents.entrySet()) {
+                final int i = writtenContent.getKey();
+                final WrittenContent content = writtenContent.getValue();
+                try {
+                    results[i] = txnHelper.doInTransaction(
+                            () -> createFileNode(parentFolderNodeRef, specs.get(i), content), false, true);
+                } catch (RuntimeException re) {
+                    results[i] = failedFileCreation(specs.get(i), re);
+                }
+            }
+        }
+    }
+
+    /**
+     * Create a file node with already written content.
+     *
+     * @param parentFolderNodeRef folder to add the file to
+     * @param spec                the file spec
+     * @param writtenContent      the content written to the content store for the file
+     * @return the file creation result
+     */
+    private FileCreationResult createFileNode(NodeRef parentFolderNodeRef, FileSpec spec,
+                                              WrittenContent writtenContent) {
+        QName associationQName = QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI,
+                QName.createValidLocalName(spec.getFilename()));
+        Map<QName, Serializable> nodeProperties = new HashMap<QName, Serializable>();
+        nodeProperties.put(ContentModel.PROP_NAME, spec.getFilename());
+        nodeProperties.put(ContentModel.PROP_CONTENT, writtenContent.contentData);
+        NodeRef newFileNodeRef = serviceRegistry.getNodeService().createNode(parentFolderNodeRef,
+                ContentModel.ASSOC_CONTAINS, associationQName, ContentModel.TYPE_CONTENT, nodeProperties).getChildRef();
+        contentFingerprintService.storeFingerprint(newFileNodeRef, writtenContent.digest);
+
+        return new FileCreationResult(spec.getFilename(), FileCreationResult.Status.CREATED, newFileNodeRef, null);
+    }
+
+    /**
+     * Log and create a failed file creation result.
+     *
+     * @param spec  the file spec that could not be created
+     * @param cause why it could not be created
+     * @return the file creation result
+     */
+    private FileCreationResult failedFileCreation(FileSpec spec, Throwable cause) {
+        LOG.error("Could not create file [" + spec.getFilename() + "]", cause);
+
+        return new FileCreationResult(spec.getFilename(), FileCreationResult.Status.FAILED, null, cause.getMessage());
+    }
+
     @Override
     public NodeRef searchOne(String query) {
-        List<NodeRef> matchingNodes = search(query);
+        LOG.debug("Executing Lucene query [{}] for one node", query);
 
-        if (matchingNodes.isEmpty()) {
-            return null;
-        }
+        SearchParameters sp = new SearchParameters();
+        sp.addStore(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
+        sp.setLanguage(SearchService.LANGUAGE_LUCENE);
+        sp.setQuery(query);
+        sp.setLimitBy(LimitBy.FINAL_SIZE);
+        sp.setLimit(1);
+        sp.setMaxItems(1);
 
-        return matchingNodes.get(0);
+        ResultSet results = null;
+        try {
+            results = serviceRegistry.getSearchService().query(sp);
+            return results.length() > 0 ? results.getNodeRef(0) : null;
+        } finally {
+            if (results != null) {
+                // Close underlying resources used by the search engine
+                results.close();
+            }
+        }
     }
 
     @Override
@@ -293,19 +767,62 @@ public class AlfrescoRepoUtilsServiceImpl implements AlfrescoRepoUtilsService {
         return matchingNodes;
     }
 
+    @Override
+    public Iterator<NodeRef> searchIterator(String query, int pageSize) {
+        LOG.debug("Executing paged Lucene query [{}] [pageSize={}]", query, pageSize);
+
+        return new PagedSearchIterator(serviceRegistry.getSearchService(), query, pageSize);
+    }
+
+    @Override
+    public Stream<NodeRef> searchStream(String query) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                searchIterator(query, searchPageSize), Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
 
     @Override
     public boolean isPartOfGroup(String username, String groupName) {
-        Set<String> authoritiesForCurrentUser =
-                serviceRegistry.getAuthorityService().getAuthoritiesForUser(username);
-        if (authoritiesForCurrentUser.contains(groupName)) {
-            return true;
+        return getAuthoritiesForUser(username).contains(groupName);
+    }
+
+    @Override
+    public Map<String, Boolean> isPartOfGroups(String username, Collection<String> groupNames) {
+        Set<String> authoritiesForUser = getAuthoritiesForUser(username);
+        Map<String, Boolean> membership = new HashMap<>();
+        for (String groupName : groupNames) {
+            membership.put(groupName, authoritiesForUser.contains(groupName));
         }
-        return false;
+
+        return membership;
+    }
+
+    /**
+     * Get all authorities for a user, from the cache if they have been resolved before.
+     *
+     * @param username username for the user
+     * @return the user's authorities, including nested groups
+     */
+    private Set<String> getAuthoritiesForUser(String username) {
+        Set<String> authoritiesForUser = authorityMembershipCache.get(username);
+        if (authoritiesForUser == null) {
+            authoritiesForUser = new HashSet<>(serviceRegistry.getAuthorityService().getAuthoritiesForUser(username));
+            if (authorityMembershipCache.isCacheable(username)) {
+                authorityMembershipCache.put(username, authoritiesForUser);
+            }
+        }
+
+        return authoritiesForUser;
     }
 
     @Override
     public NodeRef getNodeByXPath(String path) {
+        String cacheKey = XPATH_CACHE_KEY_PREFIX + path;
+        NodeRef cachedNodeRef = pathNodeRefCache.get(cacheKey);
+        if (cachedNodeRef != null) {
+            return cachedNodeRef;
+        }
+
         StoreRef storeRef = new StoreRef(StoreRef.PROTOCOL_WORKSPACE, "SpacesStore");
 
         ResultSet rs = serviceRegistry.getSearchService().query(storeRef, SearchService.LANGUAGE_XPATH, path);
@@ -317,6 +834,11 @@ public class AlfrescoRepoUtilsServiceImpl implements AlfrescoRepoUtilsService {
         } finally {
             rs.close();
         }
+
+        if (nodeRef != null) {
+            pathNodeRefCache.put(cacheKey, nodeRef);
+        }
+
         return nodeRef;
     }
 
@@ -349,32 +871,159 @@ public class AlfrescoRepoUtilsServiceImpl implements AlfrescoRepoUtilsService {
 
     @Override
     public void copyAspects(NodeRef sourceNodeRef, NodeRef destNodeRef, Set<QName> aspects) {
+        copyAspectProperties(sourceNodeRef, destNodeRef, aspects);
+    }
+
+    @Override
+    public int copyAspectsInTree(final NodeRef sourceRootNodeRef, final NodeRef destRootNodeRef,
+                                 final Set<QName> aspects) {
+        if (AlfrescoTransactionSupport.getTransactionReadState() != AlfrescoTransactionSupport.TxnReadState.TXN_NONE) {
+            int updatedNodes = 0;
+            for (NodeRef[] nodePair : matchNodeTrees(sourceRootNodeRef, destRootNodeRef)) {
+                if (copyAspectProperties(nodePair[0], nodePair[1], aspects)) {
+                    updatedNodes++;
+                }
+            }
+            return updatedNodes;
+        }
+
+        RetryingTransactionHelper txnHelper = serviceRegistry.getRetryingTransactionHelper();
+        final List<NodeRef[]> nodePairs = txnHelper.doInTransaction(
+                () -> matchNodeTrees(sourceRootNodeRef, destRootNodeRef), true, true);
+        int updatedNodes = 0;
+        for (int batchStart = 0; batchStart < nodePairs.size(); batchStart += copyAspectsBatchSize) {
+            final List<NodeRef[]> batch = nodePairs.subList(
+                    batchStart, Math.min(batchStart + copyAspectsBatchSize, nodePairs.size()));
+            updatedNodes += txnHelper.doInTransaction(() -> {
+                int updatedBatchNodes = 0;
+                for (NodeRef[] nodePair : batch) {
+                    if (copyAspectProperties(nodePair[0], nodePair[1], aspects)) {
+                        updatedBatchNodes++;
+                    }
+                }
+                return updatedBatchNodes;
+            }, false, true);
+        }
+
+        LOG.debug("Copied aspects {} from [{}] to [{}], [{}] of [{}] nodes updated", new Object[]{
+                aspects, sourceRootNodeRef, destRootNodeRef, updatedNodes, nodePairs.size()});
+
+        return updatedNodes;
+    }
+
+    /**
+     * Match the nodes in two trees by name, level by level.
+     *
+     * @param sourceRootNodeRef root of the source tree
+     * @param destRootNodeRef   root of the destination tree
+     * @return list of [source node, destination node] pairs, starting with the root nodes
+     */
+    private List<NodeRef[]> matchNodeTrees(NodeRef sourceRootNodeRef, NodeRef destRootNodeRef) {
+        List<NodeRef[]> nodePairs = new ArrayList<>();
+        Deque<NodeRef[]> nodePairsToVisit = new ArrayDeque<>();
+        nodePairsToVisit.add(new NodeRef[]{sourceRootNodeRef, destRootNodeRef});
+        while (!nodePairsToVisit.isEmpty()) {
+            NodeRef[] nodePair = nodePairsToVisit.poll();
+            nodePairs.add(nodePair);
+
+            Map<String, NodeRef> destChildren = getChildrenByName(nodePair[1]);
+            if (destChildren.isEmpty()) {
+                continue;
+            }
+            for (Map.Entry<String, NodeRef> sourceChild : getChildrenByName(nodePair[0]).entrySet()) {
+                NodeRef destChild = destChildren.get(sourceChild.getKey());
+                if (destChild != null) {
+                    nodePairsToVisit.add(new NodeRef[]{sourceChild.getValue(), destChild});
+                }
+            }
+        }
+
+        return nodePairs;
+    }
+
+    /**
+     * Get the primary children of a node keyed on name.
+     *
+     * @param parentNodeRef the parent node
+     * @return child name -> child node reference, or empty map if no children
+     */
+    private Map<String, NodeRef> getChildrenByName(NodeRef parentNodeRef) {
+        NodeService nodeService = serviceRegistry.getNodeService();
+        List<ChildAssociationRef> childAssocs = nodeService.getChildAssocs(
+                parentNodeRef, ContentModel.ASSOC_CONTAINS, RegexQNamePattern.MATCH_ALL);
+        Map<String, NodeRef> children = new HashMap<>(childAssocs.size() * 2);
+        for (ChildAssociationRef childAssoc : childAssocs) {
+            NodeRef childNodeRef = childAssoc.getChildRef();
+            children.put((String) nodeService.getProperty(childNodeRef, ContentModel.PROP_NAME), childNodeRef);
+        }
+
+        return children;
+    }
+
+    /**
+     * Copy aspect properties from source to destination node. Both nodes' properties are read once,
+     * aspects missing on the destination are added, and for the other aspects only changed properties are written.
+     * Properties that are not set on the source are removed from the destination, the same as overwriting the aspect.
+     *
+     * @param sourceNodeRef the node to copy aspect properties from
+     * @param destNodeRef   the node to copy aspect properties to
+     * @param aspects       the aspects to copy
+     * @return true if the destination node was updated
+     */
+    private boolean copyAspectProperties(NodeRef sourceNodeRef, NodeRef destNodeRef, Set<QName> aspects) {
+        NodeService nodeService = serviceRegistry.getNodeService();
+        Map<QName, Serializable> sourceProps = nodeService.getProperties(sourceNodeRef);
+        Map<QName, Serializable> destProps = nodeService.getProperties(destNodeRef);
+        Set<QName> destAspects = nodeService.getAspects(destNodeRef);
+
+        boolean updated = false;
+        Map<QName, Serializable> changedProps = new HashMap<>();
         for (QName aspect : aspects) {
-            if (serviceRegistry.getNodeService().hasAspect(destNodeRef, aspect)) {
-                serviceRegistry.getNodeService().removeAspect(destNodeRef, aspect);
+            AspectDefinition aspectDef = serviceRegistry.getDictionaryService().getAspect(aspect);
+            if (aspectDef == null) {
+                LOG.warn("Aspect [{}] is not defined in the content model, not copying it to [{}]", aspect, destNodeRef);
+                continue;
             }
-            Map<QName, Serializable> allNodeProps = serviceRegistry.getNodeService().getProperties(sourceNodeRef);
-            Map<QName, PropertyDefinition> aspectPropDefs =
-                    serviceRegistry.getDictionaryService().getAspect(aspect).getProperties(); // including inherited props
-            Map<QName, Serializable> nodeProps = new HashMap<QName, Serializable>(aspectPropDefs.size());
-            for (QName propQName : aspectPropDefs.keySet()) {
-                Serializable value = allNodeProps.get(propQName);
-                if (value != null) {
-                    nodeProps.put(propQName, value);
+            // Including inherited props
+            Set<QName> aspectProps = aspectDef.getProperties().keySet();
+            if (!destAspects.contains(aspect)) {
+                Map<QName, Serializable> aspectPropValues = new HashMap<>(aspectProps.size() * 2);
+                for (QName propQName : aspectProps) {
+                    Serializable value = sourceProps.get(propQName);
+                    if (value != null) {
+                        aspectPropValues.put(propQName, value);
+                    }
                 }
+                nodeService.addAspect(destNodeRef, aspect, aspectPropValues);
+                updated = true;
+                continue;
             }
-            serviceRegistry.getNodeService().addAspect(destNodeRef, aspect, nodeProps);
+
+            for (QName propQName : aspectProps) {
+                Serializable sourceValue = sourceProps.get(propQName);
+                Serializable destValue = destProps.get(propQName);
+                if (sourceValue == null) {
+                    if (destValue != null) {
+                        nodeService.removeProperty(destNodeRef, propQName);
+                        updated = true;
+                    }
+                } else if (!sourceValue.equals(destValue)) {
+                    changedProps.put(propQName, sourceValue);
+                }
+            }
+        }
+
+        if (!changedProps.isEmpty()) {
+            nodeService.addProperties(destNodeRef, changedProps);
+            updated = true;
         }
+
+        return updated;
     }
 
     @Override
     public boolean hasSameContent(NodeRef file1NodeRef, NodeRef file2NodeRef) {
-        ContentReader sourceFileContentReader = serviceRegistry.getFileFolderService().getReader(file1NodeRef);
-        ContentReader destinationFileContentReader = serviceRegistry.getFileFolderService().getReader(file2NodeRef);
-        String sourceFileHash = computeHash(sourceFileContentReader.getContentInputStream(), MD5_HASH_TYPE);
-        String destinationFileHash = computeHash(destinationFileContentReader.getContentInputStream(), MD5_HASH_TYPE);
-
-        return StringUtils.equals(sourceFileHash, destinationFileHash);
+        return contentFingerprintService.hasSameContent(file1NodeRef, file2NodeRef);
     }
 
     @Override
@@ -392,63 +1041,95 @@ public class AlfrescoRepoUtilsServiceImpl implements AlfrescoRepoUtilsService {
         response.getWriter().write(jsonResponse);
     }
 
-    /**
-     * Compute a Hash code for passed in content
-     *
-     * @param contentStream the alfresco repository file content stream to compute the hash for
-     * @param hashType      the hash algorithm (e.g. md5, sha-1, sha-256, sha-384, sha-512)
-     * @return hash code
-     */
-    private String computeHash(InputStream contentStream, String hashType) {
-        MessageDigest messageDigest = null;
-
-        try {
-            messageDigest = MessageDigest.getInstance(hashType);
-        } catch (NoSuchAlgorithmException e) {
-            LOG.error("Unable to compute, no hash Algorithm of type [{}]", hashType);
-            return null;
+    @Override
+    public void writeJsonResponse(WebScriptRequest request, WebScriptResponse response, String etag,
+                                  JsonWriterCallback jsonWriter) throws IOException {
+        String quotedEtag = null;
+        if (etag != null) {
+            quotedEtag = "\"" + etag + "\"";
+            response.setHeader(HEADER_ETAG, quotedEtag);
+            if (etagMatches(request.getHeader(HEADER_IF_NONE_MATCH), quotedEtag)) {
+                LOG.debug("JSON response not modified [etag={}]", quotedEtag);
+                response.setStatus(Status.STATUS_NOT_MODIFIED);
+                return;
+            }
         }
 
-        messageDigest.reset();
-        byte[] buffer = new byte[BUFFER_SIZE];
-        int bytesRead = -1;
+        response.setContentType(MimetypeMap.MIMETYPE_JSON);
+        response.setContentEncoding("UTF-8");
+        response.setHeader(HEADER_VARY, HEADER_ACCEPT_ENCODING);
+
+        // No Content-Length, so the container uses chunked transfer encoding
+        OutputStream out = response.getOutputStream();
+        GZIPOutputStream gzipOut = null;
+        if (acceptsGzip(request.getHeader(HEADER_ACCEPT_ENCODING))) {
+            response.setHeader(HEADER_CONTENT_ENCODING, GZIP_ENCODING);
+            gzipOut = new GZIPOutputStream(out, JSON_RESPONSE_BUFFER_SIZE);
+            out = gzipOut;
+        }
 
+        Writer writer = new BufferedWriter(
+                new OutputStreamWriter(out, StandardCharsets.UTF_8), JSON_RESPONSE_BUFFER_SIZE);
         try {
-            while ((bytesRead = contentStream.read(buffer)) > -1) {
-                messageDigest.update(buffer, 0, bytesRead);
+            jsonWriter.writeJson(writer);
+            writer.flush();
+            if (gzipOut != null) {
+                gzipOut.finish();
             }
-        } catch (IOException e) {
-            LOG.error("Unable to read content stream.", e);
-            return null;
         } finally {
-            IOUtils.closeQuietly(contentStream);
+            writer.close();
+        }
+    }
+
+    /**
+     * Check if the client accepts gzip content encoding.
+     *
+     * @param acceptEncoding the Accept-Encoding header value, can be null
+     * @return true if gzip is accepted
+     */
+    private boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
         }
 
-        byte[] digest = messageDigest.digest();
+        for (String encoding : acceptEncoding.split(",")) {
+            String[] encodingParts = encoding.trim().split(";");
+            if (GZIP_ENCODING.equalsIgnoreCase(encodingParts[0].trim())) {
+                // gzip;q=0 means not acceptable
+                return encodingParts.length < 2 || !encodingParts[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
 
-        return convertByteArrayToHex(digest);
+        return false;
     }
 
     /**
-     * Convert byte array to hash code
+     * Check if the If-None-Match header matches passed in ETag.
      *
-     * @param array array of bytes
-     * @return hash code
+     * @param ifNoneMatch the If-None-Match header value, can be null
+     * @param quotedEtag  the quoted ETag for the current payload
+     * @return true if the client already has the current payload
      */
-    private String convertByteArrayToHex(byte[] array) {
-        StringBuffer hashValue = new StringBuffer();
+    private boolean etagMatches(String ifNoneMatch, String quotedEtag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
 
-        for (byte element : array) {
-            String hex = Integer.toHexString(0xFF & element);
-            if (hex.length() == 1) {
-                hashValue.append('0');
+        for (String clientEtag : ifNoneMatch.split(",")) {
+            clientEtag = clientEtag.trim();
+            if (clientEtag.startsWith("W/")) {
+                // Weak comparison is fine for a GET of the same payload
+                clientEtag = clientEtag.substring(2);
+            }
+            if (clientEtag.equals("*") || clientEtag.equals(quotedEtag)) {
+                return true;
             }
-            hashValue.append(hex);
         }
 
-        return hashValue.toString().toUpperCase();
+        return false;
     }
 
+    @Override
     public byte[] getDocumentContentBytes(NodeRef documentRef) {
         // Get a content reader
         ContentReader contentReader =
@@ -457,33 +1138,135 @@ public class AlfrescoRepoUtilsServiceImpl implements AlfrescoRepoUtilsService {
             LOG.error("Content reader was null for [docNodeRef={}]", documentRef);
             return null;
         }
+        if (contentReader.getSize() > Integer.MAX_VALUE) {
+            LOG.error("Content too big to be read into a byte array [size={}][docNodeRef={}]",
+                    contentReader.getSize(), documentRef);
+            return null;
+        }
 
-        // Get the document content bytes
-        InputStream is = contentReader.getContentInputStream();
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        byte[] documentData = null;
-
+        // Read the document content bytes straight into an array of the right size
+        ByteBuffer documentData = ByteBuffer.allocate((int) contentReader.getSize());
+        ReadableByteChannel channel = contentReader.getReadableChannel();
         try {
-            byte[] buf = new byte[1024];
-            int len = 0;
-            while ((len = is.read(buf)) > 0) {
-                bos.write(buf, 0, len);
+            while (documentData.hasRemaining() && channel.read(documentData) > -1) {
+                // Keep reading until buffer is full or end of content
             }
-            documentData = bos.toByteArray();
         } catch (IOException ioe) {
             LOG.error("Content could not be read: " + ioe.getMessage() + "][docNodeRef={}]", documentRef);
             return null;
         } finally {
-            if (is != null) {
-                try {
-                    is.close();
-                } catch (Throwable e) {
-                    LOG.error("Could not close doc content input stream [error={}][docNodeRef={}",
-                            e.getMessage(), documentRef);
-                }
+            closeChannel(channel, documentRef);
+        }
+
+        return documentData.position() == documentData.capacity() ?
+                documentData.array() : Arrays.copyOf(documentData.array(), documentData.position());
+    }
+
+    @Override
+    public <R> R readContent(NodeRef documentRef, ContentChannelCallback<R> callback) throws IOException {
+        ContentReader contentReader =
+                serviceRegistry.getContentService().getReader(documentRef, ContentModel.PROP_CONTENT);
+        if (contentReader == null) {
+            LOG.error("Content reader was null for [docNodeRef={}]", documentRef);
+            return null;
+        }
+
+        ReadableByteChannel channel = contentReader.getReadableChannel();
+        try {
+            return callback.doWithContent(channel, contentReader.getSize());
+        } finally {
+            closeChannel(channel, documentRef);
+        }
+    }
+
+    @Override
+    public ByteBuffer mapContent(NodeRef documentRef) throws IOException {
+        ContentReader contentReader =
+                serviceRegistry.getContentService().getReader(documentRef, ContentModel.PROP_CONTENT);
+        if (!(contentReader instanceof FileContentReader)) {
+            LOG.debug("Content for [docNodeRef={}] is not file-backed, cannot be mapped", documentRef);
+            return null;
+        }
+        if (contentReader.getSize() > Integer.MAX_VALUE) {
+            LOG.debug("Content too big to be mapped into one buffer [size={}][docNodeRef={}]",
+                    contentReader.getSize(), documentRef);
+            return null;
+        }
+
+        // The mapping stays valid after the channel has been closed
+        File contentFile = ((FileContentReader) contentReader).getFile();
+        try (FileChannel fileChannel = FileChannel.open(contentFile.toPath(), StandardOpenOption.READ)) {
+            return fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+        }
+    }
+
+    @Override
+    public ByteBuffer readContentRange(NodeRef documentRef, long offset, int length) throws IOException {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Offset and length cannot be negative [offset=" + offset +
+                    "][length=" + length + "]");
+        }
+
+        ContentReader contentReader =
+                serviceRegistry.getContentService().getReader(documentRef, ContentModel.PROP_CONTENT);
+        if (contentReader == null) {
+            LOG.error("Content reader was null for [docNodeRef={}]", documentRef);
+            return null;
+        }
+
+        long bytesAvailable = Math.max(0, contentReader.getSize() - offset);
+        ByteBuffer range = ByteBuffer.allocate((int) Math.min(length, bytesAvailable));
+        ReadableByteChannel channel = contentReader.getReadableChannel();
+        try {
+            if (channel instanceof SeekableByteChannel) {
+                ((SeekableByteChannel) channel).position(offset);
+            } else {
+                skipContent(channel, offset);
+            }
+            while (range.hasRemaining() && channel.read(range) > -1) {
+                // Keep reading until range is full or end of content
             }
+        } finally {
+            closeChannel(channel, documentRef);
         }
 
-        return documentData;
+        range.flip();
+
+        return range;
+    }
+
+    /**
+     * Skip forward in a channel that does not support positioning.
+     *
+     * @param channel   the content channel
+     * @param bytesToSkip number of bytes to skip
+     * @throws IOException if content could not be read
+     */
+    private void skipContent(ReadableByteChannel channel, long bytesToSkip) throws IOException {
+        ByteBuffer skipBuffer = ByteBuffer.allocate((int) Math.min(bytesToSkip, CONTENT_SKIP_BUFFER_SIZE));
+        long bytesLeft = bytesToSkip;
+        while (bytesLeft > 0) {
+            skipBuffer.clear();
+            skipBuffer.limit((int) Math.min(bytesLeft, skipBuffer.capacity()));
+            int bytesRead = channel.read(skipBuffer);
+            if (bytesRead < 0) {
+                break;
+            }
+            bytesLeft -= bytesRead;
+        }
+    }
+
+    /**
+     * Close a content channel, logging any problem.
+     *
+     * @param channel     the content channel
+     * @param documentRef the node reference for the document the channel was reading
+     */
+    private void closeChannel(Channel channel, NodeRef documentRef) {
+        try {
+            channel.close();
+        } catch (Throwable e) {
+            LOG.error("Could not close doc content channel [error={}][docNodeRef={}]", e.getMessage(), documentRef);
+        }
     }
-}
\ No newline at end of file
+}
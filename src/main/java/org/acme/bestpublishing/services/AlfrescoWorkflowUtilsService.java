@@ -24,8 +24,10 @@ import org.alfresco.service.namespace.QName;
 
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Activiti Workflow specific helper methods.
@@ -35,6 +37,25 @@ import java.util.Map;
  */
 public interface AlfrescoWorkflowUtilsService {
 
+    /**
+     * How an arrival signal was delivered to the workflow for an ISBN
+     */
+    enum SignalDelivery {
+        /**
+         * The message event was delivered to the process waiting for it
+         */
+        MESSAGE_DELIVERED,
+        /**
+         * No process was waiting for the message, the variables were set on the active process instead,
+         * so the fallback timer check picks them up
+         */
+        VARIABLES_SET,
+        /**
+         * There is no active process for the ISBN
+         */
+        NO_ACTIVE_PROCESS
+    }
+
     /**
      * Returns the username for the person that initiated/started the workflow with passed in ID.
      *
@@ -48,14 +69,36 @@ public interface AlfrescoWorkflowUtilsService {
      *
      * @param workflowDefinitionName the activiti workflow definition name
      * @return a list of assigned and pooled tasks for process instances with passed in process definition
+     * @deprecated use {@link #getAssignedAndPooledTaskSummaries(String, Set, int, int)}, which returns a page of
+     * tasks with only the fields and process variables needed
      */
+    @Deprecated
     List<WorkflowTask> getAssignedAndPooledTasksForProcessDefinition(String workflowDefinitionName);
 
+    /**
+     * Get a page of the tasks assigned to the current user, or pooled to the user or one of their groups,
+     * for workflow instances with passed in workflow definition, newest first, with only the task fields
+     * and process variables that a task dashboard needs. Only the requested process variables are read.
+     * The tasks pooled to the user's groups are cached for a short time and shared by all users with the same
+     * groups, and concurrent requests for them run only one query. The tasks assigned, or pooled directly,
+     * to the user are queried for each request, and merged with the pooled tasks.
+     *
+     * @param workflowDefinitionName the workflow definition name such as 'activiti$bestpub-publishing-process'
+     * @param variableNames          the process variables to include with each task, such as bookpub_ISBN
+     * @param skipCount              number of tasks to skip
+     * @param maxItems               max number of tasks to return
+     * @return a page of task summaries
+     */
+    List<WorkflowTaskSummary> getAssignedAndPooledTaskSummaries(String workflowDefinitionName,
+                                                                Set<String> variableNames,
+                                                                int skipCount, int maxItems);
+
     /**
      * Get all completed workflow instances for passed in workflow definition
      *
-     * @param workflowDefId the workflow definition that we want to search for completed workflows for
-     * @return a list of all completed workflow instances
+     * @param workflowDefId the workflow definition that we want to search for completed workflows for,
+     *                      such as 'activiti$bestpub-publishing-process:3:4608'
+     * @return a list of all completed workflow instances for the workflow definition
      */
     List<WorkflowInstance> getCompletedWorkflows(String workflowDefId);
 
@@ -63,6 +106,7 @@ public interface AlfrescoWorkflowUtilsService {
      * Get all active workflow instances for passed in workflow definition name
      * (e.g. activiti$bestpub-publishing-process), regardless of the workflow definition version/id
      * (e.g. activiti$bestpub-publishing-process:3:4608) used by the instances.
+     * Instances are fetched page by page, use {@link #iterateWorkflows(String, Boolean, int)} if there might be many.
      *
      * @param workflowDefinitionName the workflow definition name such as 'activiti$bestpub-publishing-process'
      * @return all workflow instances that are active for the workflow definition name
@@ -73,12 +117,62 @@ public interface AlfrescoWorkflowUtilsService {
      * Get all workflow instances (both active and completed) for passed in workflow definition name
      * (e.g. activiti$bestpub-publishing-process), regardless of the workflow definition version/id
      * (e.g. activiti$bestpub-publishing-process:3:4608) used by the instances.
+     * Instances are fetched page by page, use {@link #iterateWorkflows(String, Boolean, int)} if there might be many.
      *
      * @param workflowDefinitionName the workflow definition name such as 'activiti$bestpub-publishing-process'
      * @return all workflow instances that are active or completed for the workflow definition name
      */
     List<WorkflowInstance> getWorkflows(String workflowDefinitionName);
 
+    /**
+     * Get a page of workflow instances for passed in workflow definition name, regardless of workflow definition
+     * version. The query is done on the process definition key so only instances for the definition are read,
+     * ordered on process instance id so paging is stable.
+     *
+     * @param workflowDefinitionName the workflow definition name such as 'activiti$bestpub-publishing-process'
+     * @param active                 true for active instances only, false for completed instances only,
+     *                               null for both
+     * @param skipCount              number of workflow instances to skip
+     * @param maxItems               max number of workflow instances to return
+     * @return a page of workflow instances for the workflow definition name
+     */
+    List<WorkflowInstance> getWorkflows(String workflowDefinitionName, Boolean active, int skipCount, int maxItems);
+
+    /**
+     * Lazily iterate over the workflow instances for passed in workflow definition name, regardless of
+     * workflow definition version. Workflow instances are fetched one page at a time, so the full
+     * process table is never loaded into memory. Use it from dashboards and housekeeping jobs.
+     *
+     * @param workflowDefinitionName the workflow definition name such as 'activiti$bestpub-publishing-process'
+     * @param active                 true for active instances only, false for completed instances only,
+     *                               null for both
+     * @param pageSize               number of workflow instances to fetch per page
+     * @return iterator over the workflow instances for the workflow definition name
+     */
+    Iterator<WorkflowInstance> iterateWorkflows(String workflowDefinitionName, Boolean active, int pageSize);
+
+    /**
+     * Count active workflow instances for a workflow definition grouped on the activity they are in
+     * and on the values of selected process variables, such as contentFound and metadataFound,
+     * with one grouped query on the Activiti runtime tables. Only simple variable types (string, boolean,
+     * numbers, dates) can be grouped on.
+     *
+     * @param workflowDefinitionName the workflow definition name such as 'activiti$bestpub-publishing-process'
+     * @param variableNames          the process variables to group on, can be empty
+     * @return one count per activity and variable value combination that has active workflow instances
+     */
+    List<WorkflowStatusCount> getWorkflowStatusCounts(String workflowDefinitionName, List<String> variableNames);
+
+    /**
+     * Count active workflow instances for a workflow definition per activity they are in. Uses the
+     * incrementally maintained activity counters if they are enabled for the workflow definition,
+     * otherwise one grouped query.
+     *
+     * @param workflowDefinitionName the workflow definition name such as 'activiti$bestpub-publishing-process'
+     * @return activity id -> number of active workflow instances in the activity
+     */
+    Map<String, Long> getActivityCounts(String workflowDefinitionName);
+
     /**
      * Get the value of an Activiti Process Instance variable.
      * These are variables set with for example "execution.setVariable"
@@ -89,6 +183,19 @@ public interface AlfrescoWorkflowUtilsService {
      */
     Object getProcessVariable(WorkflowInstance workflowInstance, String varName);
 
+    /**
+     * Get the values of a number of Activiti Process Instance variables for a number of workflow instances.
+     * The requested variables for active instances are fetched with one query, and for completed instances
+     * with another query, instead of one query per instance and variable. Other variables are not loaded.
+     *
+     * @param workflowInstances the workflow instances (e.g. with IDs like activiti$23456)
+     * @param variableNames     the process variable names to get values for
+     * @return a map keyed on workflow instance ID with a map of variable name to value for each instance,
+     * variables that are not set are not included, instances that no longer exist get an empty map
+     */
+    Map<String, Map<String, Object>> getProcessVariables(Collection<WorkflowInstance> workflowInstances,
+                                                         Set<String> variableNames);
+
     /**
      * Get the String value of an Activiti Process Instance variable.
      *
@@ -118,6 +225,59 @@ public interface AlfrescoWorkflowUtilsService {
     
     Integer getIntProcessVariable(WorkflowInstance workflowInstance, String variableName);
     
+    /**
+     * Store a large structured process variable value, such as all metadata or the chapter list,
+     * as a compressed blob, and get the short reference to use as the process variable value instead.
+     * Use it for the properties when starting a workflow with this service, which adds the workflow instance
+     * reference to the blob so it is kept until the workflow instance is archived.
+     *
+     * @param value the process variable value
+     * @return the reference to the stored value
+     */
+    String storeLargeProcessVariable(Serializable value);
+
+    /**
+     * Set a large structured process variable, the value is stored as a compressed blob
+     * and the process variable only holds a reference to it. The blob the process variable
+     * referenced before is released, and deleted if no other workflow instance references it.
+     *
+     * @param workflowInstanceId the workflow instance identifier (e.g. activiti$23456)
+     * @param variableName       a process variable name, such as allMetadata
+     * @param value              value to set
+     */
+    void setLargeProcessVariable(String workflowInstanceId, String variableName, Serializable value);
+
+    /**
+     * Set a large structured process variable from a delegate or listener, the value is stored
+     * as a compressed blob and the process variable only holds a reference to it. The blob the process
+     * variable referenced before is released, and deleted if no other workflow instance references it.
+     *
+     * @param exec         delegated execution context
+     * @param variableName a process variable name, such as allMetadata
+     * @param value        value to set
+     */
+    void setLargeProcessVariable(DelegateExecution exec, String variableName, Serializable value);
+
+    /**
+     * Get the value of a large structured process variable, the blob it references is read and deserialized
+     * when this is called. Process variables holding the value itself, and not a reference, are returned as is.
+     *
+     * @param workflowInstance the workflow instance (e.g. ID for it would be something like activiti$23456)
+     * @param variableName     a process variable name, such as allMetadata
+     * @return the value of the process variable, or null if not set
+     */
+    Object getLargeProcessVariable(WorkflowInstance workflowInstance, String variableName);
+
+    /**
+     * Get the value of a large structured process variable from a delegate or listener, the blob it references
+     * is read and deserialized when this is called. Process variables holding the value itself are returned as is.
+     *
+     * @param exec         delegated execution context
+     * @param variableName a process variable name, such as allMetadata
+     * @return the value of the process variable, or null if not set
+     */
+    Object getLargeProcessVariable(DelegateExecution exec, String variableName);
+
     /**
      * Set the value of an Activiti Process Instance variable.
      * These are variables set with for example "execution.setVariable"
@@ -138,6 +298,8 @@ public interface AlfrescoWorkflowUtilsService {
 
     /**
      * Get workflow instance related to passed in ISBN number.
+     * Looks up the process instance with a process variable query, an active instance is returned if there is one,
+     * otherwise the most recently completed instance.
      *
      * @param workflowDefinitionName the workflow definition name that the workflow instance has been started from,
      *                               such as 'activiti$bestpub-publishing-process'
@@ -146,6 +308,23 @@ public interface AlfrescoWorkflowUtilsService {
      */
     WorkflowInstance getWorkflowInstanceForIsbn(String workflowDefinitionName, String isbn);
 
+    /**
+     * Signal the active workflow for passed in ISBN that something it waits for has arrived, such as content or
+     * metadata, so it does not have to poll with timers. The message event is delivered to executions of the
+     * workflow that are subscribed to it, correlated on the ISBN process variable, together with the variables.
+     * If no execution is waiting for the message the variables are set on the active process instances instead,
+     * and the long fallback timer in the process will pick them up.
+     *
+     * @param workflowDefinitionName the workflow definition name such as 'activiti$bestpub-publishing-process'
+     * @param isbn                   the ISBN that the workflow instance was started for
+     * @param messageName            the message event name such as
+     *                               {@link org.acme.bestpublishing.model.BestPubWorkflowModel#MSG_CONTENT_ARRIVED}
+     * @param variables              process variables to deliver with the message, such as contentFound=true
+     * @return how the signal was delivered
+     */
+    SignalDelivery signalWorkflowForIsbn(String workflowDefinitionName, String isbn, String messageName,
+                                         Map<String, Object> variables);
+
     /**
      * Get a list of package items (i.e. files and folders associated with bpm_package) for workflow instance
      * associated with passed in execution context.
@@ -183,6 +362,22 @@ public interface AlfrescoWorkflowUtilsService {
                                                   List<NodeRef> packageFileNodeRefs,
                                                   Map<QName, Serializable> properties);
 
+    /**
+     * Prepare and start many workflow instances, such as one for each book in a supplier delivery.
+     * The latest deployed workflow definition is looked up once, and the workflows are started in chunks
+     * on a bounded pool, each chunk in its own transaction with the workflow packages for the chunk created
+     * first. If a chunk fails its workflows are started one by one, so one bad book does not fail the others.
+     * Runs as the current user, and does not use any current transaction. If the calling thread is interrupted,
+     * chunks that have not started are skipped and reported as FAILED, and running chunks are waited for.
+     * Workflows that might have been started, but have no result, are reported as UNKNOWN.
+     *
+     * @param workflowDefinitionName the workflow definition name such as 'activiti$bestpub-publishing-process'
+     * @param startRequests          one start request per book
+     * @return one result per start request, in the same order, with the workflow instance id or error for the ISBN
+     */
+    List<WorkflowStartResult> startWorkflowInstances(String workflowDefinitionName,
+                                                     List<WorkflowStartRequest> startRequests);
+
     /**
      * Get the passed in property as a list of Strings.
      *
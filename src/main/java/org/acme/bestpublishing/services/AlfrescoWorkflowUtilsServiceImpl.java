@@ -16,30 +16,60 @@ limitations under the License.
 */
 package org.acme.bestpublishing.services;
 
+import org.acme.bestpublishing.cache.HistoricVariableCache;
+import org.acme.bestpublishing.cache.WorkflowActivityCounters;
+import org.acme.bestpublishing.cache.WorkflowTaskPageCache;
 import org.acme.bestpublishing.model.BestPubWorkflowModel;
 import org.activiti.engine.HistoryService;
+import org.activiti.engine.ManagementService;
 import org.activiti.engine.RuntimeService;
+import org.activiti.engine.TaskService;
 import org.activiti.engine.delegate.DelegateExecution;
+import org.activiti.engine.delegate.event.ActivitiEntityEvent;
+import org.activiti.engine.delegate.event.ActivitiEvent;
+import org.activiti.engine.delegate.event.ActivitiEventListener;
+import org.activiti.engine.delegate.event.ActivitiEventType;
+import org.activiti.engine.history.HistoricProcessInstance;
+import org.activiti.engine.history.HistoricProcessInstanceQuery;
 import org.activiti.engine.history.HistoricVariableInstance;
 import org.activiti.engine.history.HistoricVariableInstanceQuery;
+import org.activiti.engine.history.NativeHistoricVariableInstanceQuery;
+import org.activiti.engine.repository.ProcessDefinition;
+import org.activiti.engine.runtime.Execution;
+import org.activiti.engine.runtime.ProcessInstance;
+import org.activiti.engine.task.Task;
+import org.activiti.engine.task.TaskQuery;
 import org.alfresco.model.ContentModel;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
 import org.alfresco.repo.workflow.BPMEngineRegistry;
+import org.alfresco.repo.workflow.WorkflowConstants;
 import org.alfresco.repo.workflow.WorkflowModel;
 import org.alfresco.repo.workflow.WorkflowNotificationUtils;
+import org.alfresco.repo.workflow.activiti.ActivitiConstants;
 import org.alfresco.repo.workflow.activiti.ActivitiScriptNode;
 import org.alfresco.service.ServiceRegistry;
 import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.security.AuthorityType;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.workflow.*;
 import org.alfresco.service.namespace.QName;
-import org.apache.commons.lang.StringUtils;
+import org.alfresco.util.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.BeanFactory;
 import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.jdbc.core.JdbcTemplate;
 
+import javax.sql.DataSource;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static org.acme.bestpublishing.model.BestPubContentModel.*;
 /**
@@ -56,6 +86,48 @@ public class AlfrescoWorkflowUtilsServiceImpl implements AlfrescoWorkflowUtilsSe
 
     private static final String ACTIVITI_RUNTIME_SERVICE_SPRING_BEAN_ID = "activitiRuntimeService";
     private static final String ACTIVITI_HISTORY_SERVICE_SPRING_BEAN_ID = "activitiHistoryService";
+    private static final String ACTIVITI_TASK_SERVICE_SPRING_BEAN_ID = "activitiTaskService";
+    private static final String ACTIVITI_MANAGEMENT_SERVICE_SPRING_BEAN_ID = "activitiManagementService";
+
+    /**
+     * Page size used when fetching all workflow instances for a workflow definition
+     */
+    private static final int WORKFLOW_QUERY_PAGE_SIZE = 100;
+
+    /**
+     * Process variables holding the workflow instance properties, as Alfresco names them in Activiti
+     */
+    private static final String VAR_INITIATOR = WorkflowConstants.PROP_INITIATOR;
+    private static final String VAR_WORKFLOW_DESCRIPTION = "bpm_workflowDescription";
+    private static final String VAR_PACKAGE = "bpm_package";
+    private static final String VAR_CONTEXT = "bpm_context";
+    private static final Set<String> WORKFLOW_INSTANCE_VARIABLE_NAMES = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList(VAR_INITIATOR, VAR_WORKFLOW_DESCRIPTION, VAR_PACKAGE, VAR_CONTEXT)));
+
+    /**
+     * Max number of process instance ids in one query, keeps the IN clause within database limits (e.g. Oracle 1000)
+     */
+    private static final int MAX_PROCESS_INSTANCE_IDS_PER_QUERY = 1000;
+
+    /**
+     * Workflow start chunk states, a chunk is skipped if the caller is interrupted before it starts running
+     */
+    private static final int CHUNK_NOT_STARTED = 0;
+    private static final int CHUNK_RUNNING = 1;
+    private static final int CHUNK_SKIPPED = 2;
+
+    /**
+     * Task summary order for the task dashboard, newest first, then by assignee with unassigned tasks last
+     */
+    private static final Comparator<WorkflowTaskSummary> TASK_SUMMARY_ORDER = (task1, task2) -> {
+        int order = compareNullsLast(task2.getCreateTime(), task1.getCreateTime());
+        return order != 0 ? order : compareNullsLast(task1.getAssignee(), task2.getAssignee());
+    };
+
+    /**
+     * Max time a cached workflow definition id is used before it is looked up again
+     */
+    private static final long WORKFLOW_DEFINITION_ID_TTL_MILLIS = 5 * 60 * 1000L;
 
     /*
      * Spring Bean Factory within which the registry lives
@@ -72,6 +144,33 @@ public class AlfrescoWorkflowUtilsServiceImpl implements AlfrescoWorkflowUtilsSe
      */
     private RuntimeService activitiRuntimeService;
     private HistoryService activitiHistoryService;
+    private TaskService activitiTaskService;
+    private ManagementService activitiManagementService;
+
+    /**
+     * Best Pub Specific services
+     */
+    private HistoricVariableCache historicVariableCache;
+    private ProcessVariableBlobStore processVariableBlobStore;
+    private WorkflowTaskPageCache workflowTaskPageCache;
+    private WorkflowActivityCounters workflowActivityCounters;
+
+    /**
+     * Alfresco database, used for grouped queries on the Activiti tables
+     */
+    private DataSource dataSource;
+
+    /**
+     * Bounded pool used to start workflows in parallel, and number of workflows started per transaction
+     */
+    private ExecutorService workflowStarterExecutor;
+    private int startWorkflowsChunkSize;
+
+    /**
+     * Workflow definition name -> latest deployed workflow definition id and when it was looked up
+     */
+    private final Map<String, Pair<String, Long>> workflowDefinitionIds = new ConcurrentHashMap<>();
+    private volatile boolean processDefinitionDeployListenerRegistered;
 
     /*
      * Spring DI
@@ -85,6 +184,34 @@ public class AlfrescoWorkflowUtilsServiceImpl implements AlfrescoWorkflowUtilsSe
         this.serviceRegistry = serviceRegistry;
     }
 
+    public void setHistoricVariableCache(HistoricVariableCache historicVariableCache) {
+        this.historicVariableCache = historicVariableCache;
+    }
+
+    public void setProcessVariableBlobStore(ProcessVariableBlobStore processVariableBlobStore) {
+        this.processVariableBlobStore = processVariableBlobStore;
+    }
+
+    public void setWorkflowTaskPageCache(WorkflowTaskPageCache workflowTaskPageCache) {
+        this.workflowTaskPageCache = workflowTaskPageCache;
+    }
+
+    public void setWorkflowActivityCounters(WorkflowActivityCounters workflowActivityCounters) {
+        this.workflowActivityCounters = workflowActivityCounters;
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public void setWorkflowStarterExecutor(ExecutorService workflowStarterExecutor) {
+        this.workflowStarterExecutor = workflowStarterExecutor;
+    }
+
+    public void setStartWorkflowsChunkSize(int startWorkflowsChunkSize) {
+        this.startWorkflowsChunkSize = startWorkflowsChunkSize;
+    }
+
     /**
      * Used from test class
      *
@@ -102,6 +229,7 @@ public class AlfrescoWorkflowUtilsServiceImpl implements AlfrescoWorkflowUtilsSe
     }
 
     @Override
+    @Deprecated
     public List<WorkflowTask> getAssignedAndPooledTasksForProcessDefinition(String workflowDefinitionName) {
         // Setup query for active tasks in progress
         WorkflowTaskQuery query = new WorkflowTaskQuery();
@@ -118,6 +246,192 @@ public class AlfrescoWorkflowUtilsServiceImpl implements AlfrescoWorkflowUtilsSe
         return queryTasks;
     }
 
+    @Override
+    public List<WorkflowTaskSummary> getAssignedAndPooledTaskSummaries(final String workflowDefinitionName,
+                                                                       final Set<String> variableNames,
+                                                                       final int skipCount, final int maxItems) {
+        final String processDefinitionKey = BPMEngineRegistry.getLocalId(workflowDefinitionName);
+        final String username = AuthenticationUtil.getRunAsUser();
+        final List<String> groups = new ArrayList<>();
+        for (String authority : serviceRegistry.getAuthorityService().getAuthoritiesForUser(username)) {
+            if (AuthorityType.getAuthorityType(authority) == AuthorityType.GROUP) {
+                groups.add(authority);
+            }
+        }
+        Collections.sort(groups);
+
+        // Both parts need the first skipCount + maxItems tasks, so the merged page is complete
+        final int windowSize = skipCount + maxItems;
+
+        // Tasks pooled to the user's groups, cached and shared by all users with the same groups
+        List<WorkflowTaskSummary> pooledTasks = Collections.emptyList();
+        if (!groups.isEmpty()) {
+            String cacheKey = workflowDefinitionName + "|" + groups + "|" + new TreeSet<>(variableNames) + "|" +
+                    windowSize;
+            pooledTasks = workflowTaskPageCache.getOrLoad(cacheKey, () -> queryTaskSummaries(
+                    getActivitiTaskService().createTaskQuery().
+                            processDefinitionKey(processDefinitionKey).
+                            taskCandidateGroupIn(groups),
+                    variableNames, windowSize));
+        }
+
+        // Tasks assigned to, or pooled directly to, the user
+        List<WorkflowTaskSummary> userTasks = queryTaskSummaries(
+                getActivitiTaskService().createTaskQuery().
+                        processDefinitionKey(processDefinitionKey).
+                        or().
+                        taskAssignee(username).
+                        taskCandidateUser(username).
+                        endOr(),
+                variableNames, windowSize);
+
+        // Merge, a task can be pooled to both the user and one of their groups
+        Map<String, WorkflowTaskSummary> taskSummaries = new HashMap<>();
+        for (WorkflowTaskSummary taskSummary : pooledTasks) {
+            taskSummaries.put(taskSummary.getId(), taskSummary);
+        }
+        for (WorkflowTaskSummary taskSummary : userTasks) {
+            taskSummaries.put(taskSummary.getId(), taskSummary);
+        }
+        List<WorkflowTaskSummary> page = new ArrayList<>(taskSummaries.values());
+        Collections.sort(page, TASK_SUMMARY_ORDER);
+
+        LOG.debug("Got [{}] pooled and [{}] user tasks at [skip={}] for {} [username={}]",
+                new Object[]{pooledTasks.size(), userTasks.size(), skipCount, workflowDefinitionName, username});
+
+        return skipCount >= page.size() ? new ArrayList<>() :
+                new ArrayList<>(page.subList(skipCount, Math.min(windowSize, page.size())));
+    }
+
+    /**
+     * Run a task query for the first tasks, newest first, and project them to task summaries with the requested
+     * process variables. Runs one task query, and one process variable query for the tasks.
+     *
+     * @param taskQuery     the task query, without ordering
+     * @param variableNames the process variables to include with each task, such as the ISBN
+     * @param maxItems      max number of tasks to return
+     * @return the first task summaries
+     */
+    private List<WorkflowTaskSummary> queryTaskSummaries(TaskQuery taskQuery, Set<String> variableNames,
+                                                         int maxItems) {
+        List<Task> tasks = taskQuery.
+                orderByTaskCreateTime().desc().
+                orderByTaskAssignee().asc().
+                listPage(0, maxItems);
+
+        Map<String, Map<String, Object>> processVariables = Collections.emptyMap();
+        if (!variableNames.isEmpty() && !tasks.isEmpty()) {
+            Set<String> processInstanceIds = new HashSet<>();
+            for (Task task : tasks) {
+                processInstanceIds.add(task.getProcessInstanceId());
+            }
+            processVariables = queryProcessVariables(processInstanceIds, variableNames);
+        }
+
+        List<WorkflowTaskSummary> taskSummaries = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            taskSummaries.add(new WorkflowTaskSummary(
+                    BPMEngineRegistry.createGlobalId(ActivitiConstants.ENGINE_ID, task.getId()),
+                    task.getName(), task.getDescription(), task.getAssignee(), task.getCreateTime(),
+                    task.getDueDate(), task.getPriority(),
+                    BPMEngineRegistry.createGlobalId(ActivitiConstants.ENGINE_ID, task.getProcessInstanceId()),
+                    processVariables.get(task.getProcessInstanceId())));
+        }
+
+        LOG.debug("Queried [{}] tasks", taskSummaries.size());
+
+        return taskSummaries;
+    }
+
+    @Override
+    public List<WorkflowStatusCount> getWorkflowStatusCounts(String workflowDefinitionName,
+                                                             final List<String> variableNames) {
+        // One grouped query on the runtime tables, with a join per variable to group on
+        StringBuilder select = new StringBuilder("SELECT e.ACT_ID_");
+        StringBuilder from = new StringBuilder(
+                " FROM ACT_RU_EXECUTION e JOIN ACT_RE_PROCDEF d ON e.PROC_DEF_ID_ = d.ID_");
+        StringBuilder groupBy = new StringBuilder(" GROUP BY e.ACT_ID_");
+        List<Object> params = new ArrayList<>();
+        for (int i = 0; i < variableNames.size(); i++) {
+            String v = "v" + i;
+            select.append(", ").append(v).append(".TYPE_, ").append(v).append(".TEXT_, ").append(v).append(".LONG_");
+            from.append(" LEFT JOIN ACT_RU_VARIABLE ").append(v).append(" ON ").
+                    append(v).append(".EXECUTION_ID_ = e.PROC_INST_ID_ AND ").
+                    append(v).append(".NAME_ = ? AND ").
+                    append(v).append(".TASK_ID_ IS NULL");
+            groupBy.append(", ").append(v).append(".TYPE_, ").append(v).append(".TEXT_, ").append(v).append(".LONG_");
+            params.add(variableNames.get(i));
+        }
+        select.append(", COUNT(DISTINCT e.PROC_INST_ID_)");
+        String sql = select.toString() + from +
+                " WHERE d.KEY_ = ? AND e.ACT_ID_ IS NOT NULL AND e.IS_ACTIVE_ = ?" + groupBy;
+        params.add(BPMEngineRegistry.getLocalId(workflowDefinitionName));
+        params.add(Boolean.TRUE);
+
+        long startTime = System.currentTimeMillis();
+        List<WorkflowStatusCount> statusCounts = new JdbcTemplate(dataSource).query(sql, params.toArray(),
+                (rs, rowNum) -> {
+                    Map<String, Object> variableValues = new LinkedHashMap<>();
+                    int column = 2;
+                    for (String variableName : variableNames) {
+                        variableValues.put(variableName, toVariableValue(
+                                rs.getString(column), rs.getString(column + 1), (Number) rs.getObject(column + 2)));
+                        column += 3;
+                    }
+                    return new WorkflowStatusCount(rs.getString(1), variableValues, rs.getLong(column));
+                });
+
+        LOG.debug("Counted workflows in [{}] activity and variable value groups in [{}ms] for {}",
+                new Object[]{statusCounts.size(), System.currentTimeMillis() - startTime, workflowDefinitionName});
+
+        return statusCounts;
+    }
+
+    @Override
+    public Map<String, Long> getActivityCounts(String workflowDefinitionName) {
+        if (workflowActivityCounters != null && workflowActivityCounters.isCounting(workflowDefinitionName)) {
+            return workflowActivityCounters.getActivityCounts();
+        }
+
+        Map<String, Long> activityCounts = new HashMap<>();
+        for (WorkflowStatusCount statusCount :
+                getWorkflowStatusCounts(workflowDefinitionName, Collections.<String>emptyList())) {
+            activityCounts.put(statusCount.getActivityId(), statusCount.getCount());
+        }
+
+        return activityCounts;
+    }
+
+    /**
+     * Get a variable value from the ACT_RU_VARIABLE columns, only simple types can be grouped on,
+     * other types, such as serializable, are returned as null.
+     *
+     * @param type      the Activiti variable type, such as string or boolean
+     * @param text      the text column value
+     * @param longValue the long column value
+     * @return the variable value, or null if not set or not a simple type
+     */
+    private Object toVariableValue(String type, String text, Number longValue) {
+        if (type == null) {
+            return null;
+        }
+        switch (type) {
+            case "string":
+                return text;
+            case "boolean":
+                return longValue == null ? null : longValue.longValue() == 1;
+            case "integer":
+                return longValue == null ? null : longValue.intValue();
+            case "short":
+            case "long":
+                return longValue == null ? null : longValue.longValue();
+            case "date":
+                return longValue == null ? null : new Date(longValue.longValue());
+            default:
+                return null;
+        }
+    }
+
     @Override
     public List<WorkflowInstance> getNodeWorkflows(NodeRef node) {
         return serviceRegistry.getWorkflowService().getWorkflowsForContent(node, true);
@@ -125,18 +439,14 @@ public class AlfrescoWorkflowUtilsServiceImpl implements AlfrescoWorkflowUtilsSe
 
     @Override
     public List<WorkflowInstance> getCompletedWorkflows(String workflowDefId) {
-        return serviceRegistry.getWorkflowService().getCompletedWorkflows();
+        return serviceRegistry.getWorkflowService().getCompletedWorkflows(workflowDefId);
     }
 
     @Override
     public List<WorkflowInstance> getActiveWorkflows(String workflowDefinitionName) {
         List<WorkflowInstance> activeWorkflows = new ArrayList<>();
-        List<WorkflowInstance> allActiveWorkflows = serviceRegistry.getWorkflowService().getActiveWorkflows();
-        for (WorkflowInstance activeWorkflowInstance : allActiveWorkflows) {
-            if (activeWorkflowInstance.getDefinition().getName().equals(workflowDefinitionName)) {
-                activeWorkflows.add(activeWorkflowInstance);
-            }
-        }
+        iterateWorkflows(workflowDefinitionName, Boolean.TRUE, WORKFLOW_QUERY_PAGE_SIZE).
+                forEachRemaining(activeWorkflows::add);
 
         return activeWorkflows;
     }
@@ -144,14 +454,103 @@ public class AlfrescoWorkflowUtilsServiceImpl implements AlfrescoWorkflowUtilsSe
     @Override
     public List<WorkflowInstance> getWorkflows(String workflowDefinitionName) {
         List<WorkflowInstance> workflows = new ArrayList<>();
-        List<WorkflowInstance> allWorkflows = serviceRegistry.getWorkflowService().getWorkflows();
-        for (WorkflowInstance workflowInstance : allWorkflows) {
-            if (workflowInstance.getDefinition().getName().equals(workflowDefinitionName)) {
-                workflows.add(workflowInstance);
+        iterateWorkflows(workflowDefinitionName, null, WORKFLOW_QUERY_PAGE_SIZE).forEachRemaining(workflows::add);
+
+        return workflows;
+    }
+
+    @Override
+    public List<WorkflowInstance> getWorkflows(String workflowDefinitionName, Boolean active,
+                                               int skipCount, int maxItems) {
+        return toWorkflowInstances(getHistoricProcessInstances(
+                BPMEngineRegistry.getLocalId(workflowDefinitionName), active, skipCount, maxItems));
+    }
+
+    @Override
+    public Iterator<WorkflowInstance> iterateWorkflows(String workflowDefinitionName, Boolean active, int pageSize) {
+        final String processDefinitionKey = BPMEngineRegistry.getLocalId(workflowDefinitionName);
+        return new PagedWorkflowInstanceIterator((skipCount, maxItems) -> toWorkflowInstances(
+                getHistoricProcessInstances(processDefinitionKey, active, skipCount, maxItems)), pageSize);
+    }
+
+    /**
+     * Get a page of process instances for a process definition key, ordered on process instance id.
+     * The history tables contain both active and completed process instances, with start and end dates.
+     *
+     * @param processDefinitionKey the Activiti process definition key, such as 'bestpub-publishing-process'
+     * @param active               true for active instances only, false for completed instances only,
+     *                             null for both
+     * @param skipCount            number of process instances to skip
+     * @param maxItems             max number of process instances to return
+     * @return a page of process instances
+     */
+    private List<HistoricProcessInstance> getHistoricProcessInstances(String processDefinitionKey, Boolean active,
+                                                                      int skipCount, int maxItems) {
+        HistoricProcessInstanceQuery query = getActivitiHistoryService().createHistoricProcessInstanceQuery().
+                processDefinitionKey(processDefinitionKey);
+        if (Boolean.TRUE.equals(active)) {
+            query.unfinished();
+        } else if (active != null) {
+            query.finished();
+        }
+
+        return query.orderByProcessInstanceId().asc().listPage(skipCount, maxItems);
+    }
+
+    /**
+     * Convert a page of process instances to Alfresco workflow instances in one pass, with one query for the
+     * workflow instance process variables (initiator, description, package, and context) of the whole page,
+     * instead of loading each workflow instance with the workflow service.
+     *
+     * @param processInstances the process instances, active or completed
+     * @return the workflow instances, in the same order
+     */
+    private List<WorkflowInstance> toWorkflowInstances(List<HistoricProcessInstance> processInstances) {
+        List<WorkflowInstance> workflowInstances = new ArrayList<>(processInstances.size());
+        if (processInstances.isEmpty()) {
+            return workflowInstances;
+        }
+
+        Set<String> processInstanceIds = new HashSet<>();
+        for (HistoricProcessInstance processInstance : processInstances) {
+            processInstanceIds.add(processInstance.getId());
+        }
+        Map<String, Map<String, Object>> processVariables =
+                queryProcessVariables(processInstanceIds, WORKFLOW_INSTANCE_VARIABLE_NAMES);
+
+        Map<String, WorkflowDefinition> workflowDefinitions = new HashMap<>();
+        for (HistoricProcessInstance processInstance : processInstances) {
+            String processDefinitionId = processInstance.getProcessDefinitionId();
+            WorkflowDefinition workflowDefinition = workflowDefinitions.get(processDefinitionId);
+            if (workflowDefinition == null) {
+                workflowDefinition = serviceRegistry.getWorkflowService().getDefinitionById(
+                        BPMEngineRegistry.createGlobalId(ActivitiConstants.ENGINE_ID, processDefinitionId));
+                workflowDefinitions.put(processDefinitionId, workflowDefinition);
             }
+
+            Map<String, Object> variables = processVariables.get(processInstance.getId());
+            Object description = variables.get(VAR_WORKFLOW_DESCRIPTION);
+            workflowInstances.add(new WorkflowInstance(
+                    BPMEngineRegistry.createGlobalId(ActivitiConstants.ENGINE_ID, processInstance.getId()),
+                    workflowDefinition, description == null ? null : description.toString(),
+                    toNodeRef(variables.get(VAR_INITIATOR)), toNodeRef(variables.get(VAR_PACKAGE)),
+                    toNodeRef(variables.get(VAR_CONTEXT)), processInstance.getEndTime() == null,
+                    processInstance.getStartTime(), processInstance.getEndTime()));
         }
 
-        return workflows;
+        return workflowInstances;
+    }
+
+    /**
+     * @param variableValue a node process variable value, an ActivitiScriptNode or a NodeRef
+     * @return the node reference, or null if the variable is not set
+     */
+    private NodeRef toNodeRef(Object variableValue) {
+        if (variableValue instanceof ActivitiScriptNode) {
+            return ((ActivitiScriptNode) variableValue).getNodeRef();
+        }
+
+        return variableValue instanceof NodeRef ? (NodeRef) variableValue : null;
     }
 
     @Override
@@ -160,18 +559,239 @@ public class AlfrescoWorkflowUtilsServiceImpl implements AlfrescoWorkflowUtilsSe
             String executionId = BPMEngineRegistry.getLocalId(workflowInstance.getId());
             return getActivitiRuntimeService().getVariable(executionId, variableName);
         } else {
-            HistoricVariableInstanceQuery hviq = getActivitiHistoryService().createHistoricVariableInstanceQuery().
-                    processInstanceId(workflowInstance.getId()).variableName(variableName);
-            HistoricVariableInstance hvi = hviq.singleResult();
-            if (hvi != null) {
-                return hvi.getValue();
+            // Variables never change once the process instance has completed
+            return historicVariableCache.getVariable(BPMEngineRegistry.getLocalId(workflowInstance.getId()),
+                    variableName, this::getHistoricProcessVariable);
+        }
+    }
+
+    /**
+     * Read a process variable for a completed process instance from the history tables.
+     *
+     * @param processInstanceId the Activiti process instance id (e.g. 23456)
+     * @param variableName      a process variable name
+     * @return the value of the process variable, or null if it is not set
+     */
+    private Object getHistoricProcessVariable(String processInstanceId, String variableName) {
+        HistoricVariableInstanceQuery hviq = getActivitiHistoryService().createHistoricVariableInstanceQuery().
+                processInstanceId(processInstanceId).variableName(variableName);
+        HistoricVariableInstance hvi = hviq.singleResult();
+        if (hvi != null) {
+            return hvi.getValue();
+        } else {
+            LOG.debug("Process variable {} is not set for process instance [{}]", variableName, processInstanceId);
+            return null;
+        }
+    }
+
+    @Override
+    public Map<String, Map<String, Object>> getProcessVariables(Collection<WorkflowInstance> workflowInstances,
+                                                                 Set<String> variableNames) {
+        // Split on active and completed (not cached), keyed on process instance id
+        Map<String, Map<String, Object>> processVariables = new HashMap<>(workflowInstances.size() * 2);
+        Map<String, String> activeWorkflowIds = new HashMap<>();
+        Map<String, String> completedWorkflowIds = new HashMap<>();
+        for (WorkflowInstance workflowInstance : workflowInstances) {
+            String processInstanceId = BPMEngineRegistry.getLocalId(workflowInstance.getId());
+            if (workflowInstance.isActive()) {
+                activeWorkflowIds.put(processInstanceId, workflowInstance.getId());
             } else {
-                LOG.debug("Process variable {} is not set for process instance [{}]", 
-                        variableName, workflowInstance.getId());
+                Map<String, Object> cachedVariables =
+                        historicVariableCache.getVariables(processInstanceId, variableNames);
+                if (cachedVariables != null) {
+                    processVariables.put(workflowInstance.getId(), cachedVariables);
+                } else {
+                    completedWorkflowIds.put(processInstanceId, workflowInstance.getId());
+                }
+            }
+        }
+
+        for (Map.Entry<String, Map<String, Object>> activeProcessVariables :
+                queryProcessVariables(activeWorkflowIds.keySet(), variableNames).entrySet()) {
+            processVariables.put(activeWorkflowIds.get(activeProcessVariables.getKey()),
+                    activeProcessVariables.getValue());
+        }
+        for (Map.Entry<String, Map<String, Object>> completedProcessVariables :
+                queryProcessVariables(completedWorkflowIds.keySet(), variableNames).entrySet()) {
+            historicVariableCache.putVariables(
+                    completedProcessVariables.getKey(), variableNames, completedProcessVariables.getValue());
+            processVariables.put(completedWorkflowIds.get(completedProcessVariables.getKey()),
+                    completedProcessVariables.getValue());
+        }
+
+        LOG.debug("Fetched process variables {} for [{}] active and [{}] completed (not cached) workflow instances",
+                new Object[]{variableNames, activeWorkflowIds.size(), completedWorkflowIds.size()});
+
+        return processVariables;
+    }
+
+    /**
+     * Get the named process variables for process instances, active or completed, with one native query on the
+     * historic variable table per {@link #MAX_PROCESS_INSTANCE_IDS_PER_QUERY} process instances.
+     * <p>
+     * Only the named variables are read, so other (large) variables are never loaded, and the result is not
+     * limited by the engine's processInstanceVariablesLimit, as it is when including all process variables
+     * in a process instance query. The historic variables are updated in the same transaction as the runtime
+     * variables, so they have the current values for active process instances too.
+     * The query is run in an Activiti command so serialized values can be read.
+     *
+     * @param processInstanceIds the Activiti process instance ids (e.g. 23456)
+     * @param variableNames      the process variable names to get values for
+     * @return a map keyed on process instance id with a map of variable name to value for each instance,
+     * variables that are not set are left out
+     */
+    private Map<String, Map<String, Object>> queryProcessVariables(Collection<String> processInstanceIds,
+                                                                   Set<String> variableNames) {
+        final Map<String, Map<String, Object>> processVariables = new HashMap<>(processInstanceIds.size() * 2);
+        for (String processInstanceId : processInstanceIds) {
+            processVariables.put(processInstanceId, new HashMap<>());
+        }
+        if (processInstanceIds.isEmpty() || variableNames.isEmpty()) {
+            return processVariables;
+        }
+
+        final String variableTableName = getActivitiManagementService().getTableName(HistoricVariableInstance.class);
+        for (final List<String> processInstanceIdsPartition : partition(processInstanceIds)) {
+            getActivitiManagementService().executeCommand(commandContext -> {
+                NativeHistoricVariableInstanceQuery query =
+                        getActivitiHistoryService().createNativeHistoricVariableInstanceQuery();
+                StringBuilder sql = new StringBuilder("SELECT * FROM ").append(variableTableName).
+                        append(" WHERE PROC_INST_ID_ IN (");
+                for (int i = 0; i < processInstanceIdsPartition.size(); i++) {
+                    sql.append(i == 0 ? "" : ", ").append("#{pid").append(i).append("}");
+                    query.parameter("pid" + i, processInstanceIdsPartition.get(i));
+                }
+                sql.append(") AND NAME_ IN (");
+                int i = 0;
+                for (String variableName : variableNames) {
+                    sql.append(i == 0 ? "" : ", ").append("#{name").append(i).append("}");
+                    query.parameter("name" + i, variableName);
+                    i++;
+                }
+                // Process variables only, not task or sub execution local variables
+                sql.append(") AND EXECUTION_ID_ = PROC_INST_ID_ AND TASK_ID_ IS NULL");
+
+                for (HistoricVariableInstance variable : query.sql(sql.toString()).list()) {
+                    Object value = variable.getValue();
+                    if (value != null) {
+                        processVariables.get(variable.getProcessInstanceId()).put(variable.getVariableName(), value);
+                    }
+                }
                 return null;
+            });
+        }
+
+        return processVariables;
+    }
+
+    private static <T extends Comparable<T>> int compareNullsLast(T value1, T value2) {
+        if (value1 == null || value2 == null) {
+            return value1 == null ? (value2 == null ? 0 : 1) : -1;
+        }
+
+        return value1.compareTo(value2);
+    }
+
+    /**
+     * Split process instance ids into lists that fit in a database IN clause.
+     *
+     * @param processInstanceIds the process instance ids to split
+     * @return lists of at most {@link #MAX_PROCESS_INSTANCE_IDS_PER_QUERY} process instance ids
+     */
+    private List<List<String>> partition(Collection<String> processInstanceIds) {
+        List<List<String>> partitions = new ArrayList<>();
+        List<String> partition = new ArrayList<>();
+        for (String processInstanceId : processInstanceIds) {
+            partition.add(processInstanceId);
+            if (partition.size() == MAX_PROCESS_INSTANCE_IDS_PER_QUERY) {
+                partitions.add(partition);
+                partition = new ArrayList<>();
             }
-            //return .singleResult().getValue();
         }
+        if (!partition.isEmpty()) {
+            partitions.add(partition);
+        }
+
+        return partitions;
+    }
+
+    @Override
+    public String storeLargeProcessVariable(Serializable value) {
+        return processVariableBlobStore.store(value);
+    }
+
+    @Override
+    public void setLargeProcessVariable(String workflowInstanceId, String variableName, Serializable value) {
+        Object previousValue = getActivitiRuntimeService().getVariable(
+                BPMEngineRegistry.getLocalId(workflowInstanceId), variableName);
+        String reference = value == null ? null : storeLargeProcessVariable(value);
+        setProcessVariable(workflowInstanceId, variableName, reference);
+        updateBlobReferences(workflowInstanceId, previousValue, reference);
+    }
+
+    @Override
+    public void setLargeProcessVariable(DelegateExecution exec, String variableName, Serializable value) {
+        Object previousValue = exec.getVariable(variableName);
+        String reference = value == null ? null : storeLargeProcessVariable(value);
+        exec.setVariable(variableName, reference);
+        updateBlobReferences(BPMEngineRegistry.createGlobalId(
+                ActivitiConstants.ENGINE_ID, exec.getProcessInstanceId()), previousValue, reference);
+    }
+
+    /**
+     * Add the workflow instance reference to the blob a process variable now references, and release the blob
+     * it referenced before, so that blob is deleted if no other workflow instance references it.
+     *
+     * @param workflowInstanceId the workflow instance id (e.g. activiti$23456)
+     * @param previousValue      the process variable value before it was set
+     * @param reference          the new process variable value, a blob reference, or null
+     */
+    private void updateBlobReferences(String workflowInstanceId, Object previousValue, String reference) {
+        if (reference != null) {
+            processVariableBlobStore.addReference(reference, workflowInstanceId);
+        }
+        if (processVariableBlobStore.isReference(previousValue) && !previousValue.equals(reference)) {
+            processVariableBlobStore.release((String) previousValue, workflowInstanceId);
+        }
+    }
+
+    /**
+     * Add the workflow instance reference to the blobs referenced by the properties a workflow was started with.
+     *
+     * @param workflowInstanceId the started workflow instance id (e.g. activiti$23456)
+     * @param properties         the properties the workflow instance was started with
+     */
+    private void addBlobReferences(String workflowInstanceId, Map<QName, Serializable> properties) {
+        for (Serializable value : properties.values()) {
+            if (processVariableBlobStore.isReference(value)) {
+                processVariableBlobStore.addReference((String) value, workflowInstanceId);
+            }
+        }
+    }
+
+    @Override
+    public Object getLargeProcessVariable(WorkflowInstance workflowInstance, String variableName) {
+        return resolveLargeProcessVariable(getProcessVariable(workflowInstance, variableName));
+    }
+
+    @Override
+    public Object getLargeProcessVariable(DelegateExecution exec, String variableName) {
+        return resolveLargeProcessVariable(exec.getVariable(variableName));
+    }
+
+    /**
+     * Load the value for a process variable holding a blob reference, other values are returned as is,
+     * so processes started before large variables were stored as blobs still work.
+     *
+     * @param value the process variable value
+     * @return the value the reference points to, or the passed in value if it is not a reference
+     */
+    private Object resolveLargeProcessVariable(Object value) {
+        if (processVariableBlobStore.isReference(value)) {
+            return processVariableBlobStore.load((String) value);
+        }
+
+        return value;
     }
 
     @Override
@@ -223,16 +843,45 @@ public class AlfrescoWorkflowUtilsServiceImpl implements AlfrescoWorkflowUtilsSe
 
     @Override
     public WorkflowInstance getWorkflowInstanceForIsbn(String workflowDefinitionName, String isbn) {
-        WorkflowInstance workflowInstanceForIsbn = null;
-        List<WorkflowInstance> wfInstances = getWorkflows(workflowDefinitionName);
-        for (WorkflowInstance workflowInstance : wfInstances) {
-            String varIsbn = getStringProcessVariable(workflowInstance, BestPubWorkflowModel.VAR_ISBN);
-            if (StringUtils.equals(isbn, varIsbn)) {
-                workflowInstanceForIsbn = workflowInstance;
-                break;
-            }
+        String processDefinitionKey = BPMEngineRegistry.getLocalId(workflowDefinitionName);
+
+        // Prefer an active process instance
+        List<ProcessInstance> activeProcessInstances = getActivitiRuntimeService().createProcessInstanceQuery().
+                processDefinitionKey(processDefinitionKey).
+                variableValueEquals(BestPubWorkflowModel.VAR_ISBN, isbn).
+                orderByProcessInstanceId().desc().
+                listPage(0, 1);
+        if (!activeProcessInstances.isEmpty()) {
+            return getWorkflowInstance(activeProcessInstances.get(0).getProcessInstanceId());
         }
-        return workflowInstanceForIsbn;
+
+        // Otherwise the most recently completed one
+        List<HistoricProcessInstance> completedProcessInstances =
+                getActivitiHistoryService().createHistoricProcessInstanceQuery().
+                        processDefinitionKey(processDefinitionKey).
+                        variableValueEquals(BestPubWorkflowModel.VAR_ISBN, isbn).
+                        finished().
+                        orderByProcessInstanceEndTime().desc().
+                        listPage(0, 1);
+        if (!completedProcessInstances.isEmpty()) {
+            return toWorkflowInstances(completedProcessInstances).get(0);
+        }
+
+        LOG.debug("No workflow instance found for ISBN [{}][workflowDefinitionName={}]", isbn, workflowDefinitionName);
+        return null;
+    }
+
+    /**
+     * Get the Alfresco workflow instance for an Activiti process instance.
+     *
+     * @param processInstanceId the Activiti process instance id (e.g. 23456)
+     * @return the workflow instance (e.g. with ID activiti$23456), or null if there is no such process instance
+     */
+    private WorkflowInstance getWorkflowInstance(String processInstanceId) {
+        List<WorkflowInstance> workflowInstances = toWorkflowInstances(getActivitiHistoryService().
+                createHistoricProcessInstanceQuery().processInstanceId(processInstanceId).list());
+
+        return workflowInstances.isEmpty() ? null : workflowInstances.get(0);
     }
 
     @Override
@@ -246,30 +895,20 @@ public class AlfrescoWorkflowUtilsServiceImpl implements AlfrescoWorkflowUtilsSe
                                                   List<NodeRef> packageFileNodeRefs,
                                                   Map<QName, Serializable> properties) {
         // Setup workflow package with files (i.e. setup bpm_package)
-        NodeRef workflowPackage = serviceRegistry.getWorkflowService().createPackage(null);
-        for (NodeRef packageFileNodeRef : packageFileNodeRefs) {
-            ChildAssociationRef childAssoc = serviceRegistry.getNodeService().getPrimaryParent(packageFileNodeRef);
-            serviceRegistry.getNodeService().addChild(workflowPackage, packageFileNodeRef, 
-                    WorkflowModel.ASSOC_PACKAGE_CONTAINS, childAssoc.getQName());
-        }
+        NodeRef workflowPackage = createWorkflowPackage(packageFileNodeRefs);
         properties.put(WorkflowModel.ASSOC_PACKAGE, workflowPackage);
 
         // Start the workflow
         // Get latest deployed definition such as "activiti$bestpub-publishing-process:34:9311" from
         // "activiti$bestpub-publishing-process"
-        WorkflowDefinition workflowDefinition = 
-                this.serviceRegistry.getWorkflowService().getDefinitionByName(workflowDefId);
+        String workflowDefinitionId = getLatestWorkflowDefinitionId(workflowDefId);
         WorkflowPath workflowPath = 
-                this.serviceRegistry.getWorkflowService().startWorkflow(workflowDefinition.getId(), properties);
+                this.serviceRegistry.getWorkflowService().startWorkflow(workflowDefinitionId, properties);
+        addBlobReferences(workflowPath.getInstance().getId(), properties);
 
         // Complete the start task, otherwise it will not start
-        String workflowId = workflowPath.getInstance().getId();
-        WorkflowTask startTask = serviceRegistry.getWorkflowService().getStartTask(workflowId);
         try {
-            // Only end the start task if it is still active
-            if (startTask.getPath().isActive()) {
-                serviceRegistry.getWorkflowService().endTask(startTask.getId(), null);
-            }
+            endStartTask(workflowPath.getInstance().getId());
         } catch (RuntimeException e) {
             LOG.error("Could not start workflow for ISBN " + properties.get(BookInfoAspect.Prop.ISBN) +
                     " [workflowDefId=" + workflowDefId + "][packageFileSize=" + packageFileNodeRefs.size() + "]", e);
@@ -283,6 +922,291 @@ public class AlfrescoWorkflowUtilsServiceImpl implements AlfrescoWorkflowUtilsSe
         return workflowPath.getInstance();
     }
 
+    @Override
+    public List<WorkflowStartResult> startWorkflowInstances(String workflowDefinitionName,
+                                                            List<WorkflowStartRequest> startRequests) {
+        long startTime = System.currentTimeMillis();
+        final String workflowDefinitionId = getLatestWorkflowDefinitionId(workflowDefinitionName);
+        LOG.debug("Starting [{}] workflows [workflowDefinitionId={}]", startRequests.size(), workflowDefinitionId);
+
+        // Start the workflows in chunks on the workflow starter pool, each chunk in its own transaction
+        final String currentUser = AuthenticationUtil.getFullyAuthenticatedUser();
+        final AtomicReferenceArray<WorkflowStartResult> results = new AtomicReferenceArray<>(startRequests.size());
+        final int chunkCount = (startRequests.size() + startWorkflowsChunkSize - 1) / startWorkflowsChunkSize;
+        final AtomicIntegerArray chunkStates = new AtomicIntegerArray(chunkCount);
+        List<Future<?>> chunkStarts = new ArrayList<>(chunkCount);
+        for (int chunkNr = 0; chunkNr < chunkCount; chunkNr++) {
+            final int chunkIndex = chunkNr;
+            final int offset = chunkNr * startWorkflowsChunkSize;
+            final List<WorkflowStartRequest> chunk = startRequests.subList(
+                    offset, Math.min(offset + startWorkflowsChunkSize, startRequests.size()));
+            chunkStarts.add(workflowStarterExecutor.submit(() -> AuthenticationUtil.runAs(() -> {
+                // Don't start the chunk if the caller was interrupted before it got to run
+                if (chunkStates.compareAndSet(chunkIndex, CHUNK_NOT_STARTED, CHUNK_RUNNING)) {
+                    startWorkflowChunk(workflowDefinitionId, chunk, offset, results);
+                }
+                return null;
+            }, currentUser)));
+        }
+
+        boolean interrupted = false;
+        for (int i = 0; i < chunkCount; i++) {
+            try {
+                if (chunkStates.get(i) != CHUNK_SKIPPED) {
+                    chunkStarts.get(i).get();
+                }
+            } catch (InterruptedException ie) {
+                // Skip the chunks that have not started, and keep waiting for the running ones,
+                // interrupting them could leave workflows started without a result
+                interrupted = true;
+                for (int j = i; j < chunkCount; j++) {
+                    if (chunkStates.compareAndSet(j, CHUNK_NOT_STARTED, CHUNK_SKIPPED)) {
+                        chunkStarts.get(j).cancel(false);
+                    }
+                }
+                i--;
+            } catch (ExecutionException ee) {
+                LOG.error("Could not start chunk of workflows [workflowDefinitionId=" + workflowDefinitionId + "]",
+                        ee.getCause());
+                int offset = i * startWorkflowsChunkSize;
+                int end = Math.min(offset + startWorkflowsChunkSize, startRequests.size());
+                for (int j = offset; j < end; j++) {
+                    results.compareAndSet(j, null, new WorkflowStartResult(startRequests.get(j).getIsbn(),
+                            WorkflowStartResult.Status.UNKNOWN, null, String.valueOf(ee.getCause())));
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<WorkflowStartResult> startResults = new ArrayList<>(startRequests.size());
+        int startedCount = 0;
+        for (int i = 0; i < startRequests.size(); i++) {
+            WorkflowStartResult result = results.get(i);
+            if (result == null) {
+                if (chunkStates.get(i / startWorkflowsChunkSize) == CHUNK_SKIPPED) {
+                    result = new WorkflowStartResult(startRequests.get(i).getIsbn(),
+                            WorkflowStartResult.Status.FAILED, null, "Workflow start was interrupted");
+                } else {
+                    result = new WorkflowStartResult(startRequests.get(i).getIsbn(),
+                            WorkflowStartResult.Status.UNKNOWN, null, "Workflow start result is not known");
+                }
+            } else if (result.getStatus() == WorkflowStartResult.Status.STARTED) {
+                startedCount++;
+            }
+            startResults.add(result);
+        }
+
+        long elapsedMillis = Math.max(1, System.currentTimeMillis() - startTime);
+        LOG.info("Started [{}] of [{}] workflows in [{}ms], [{} workflows/s] [workflowDefinitionId={}]",
+                new Object[]{startedCount, startRequests.size(), elapsedMillis,
+                        (startedCount * 1000L) / elapsedMillis, workflowDefinitionId});
+
+        return startResults;
+    }
+
+    /**
+     * Start a chunk of workflows in one new transaction, creating all the workflow packages first.
+     * If the chunk transaction fails the workflows are started one by one, each in its own transaction,
+     * so one bad book does not fail the whole chunk.
+     *
+     * @param workflowDefinitionId the deployed workflow definition id (e.g. activiti$bestpub-publishing-process:3:4608)
+     * @param chunk                the start requests in this chunk
+     * @param offset               index of the first start request in the chunk in all the start requests
+     * @param results              workflow start results, indexed as all the start requests
+     */
+    private void startWorkflowChunk(final String workflowDefinitionId, final List<WorkflowStartRequest> chunk,
+                                    int offset, AtomicReferenceArray<WorkflowStartResult> results) {
+        RetryingTransactionHelper txnHelper = serviceRegistry.getRetryingTransactionHelper();
+        try {
+            List<String> workflowInstanceIds = txnHelper.doInTransaction(() -> {
+                List<NodeRef> workflowPackages = new ArrayList<>(chunk.size());
+                for (WorkflowStartRequest startRequest : chunk) {
+                    workflowPackages.add(createWorkflowPackage(startRequest.getPackageFileNodeRefs()));
+                }
+                List<String> startedWorkflowInstanceIds = new ArrayList<>(chunk.size());
+                for (int i = 0; i < chunk.size(); i++) {
+                    startedWorkflowInstanceIds.add(startWorkflow(
+                            workflowDefinitionId, workflowPackages.get(i), chunk.get(i).getProperties()));
+                }
+                return startedWorkflowInstanceIds;
+            }, false, true);
+            for (int i = 0; i < chunk.size(); i++) {
+                results.set(offset + i, new WorkflowStartResult(chunk.get(i).getIsbn(),
+                        WorkflowStartResult.Status.STARTED, workflowInstanceIds.get(i), null));
+            }
+        } catch (RuntimeException e) {
+            LOG.warn("Could not start chunk of [" + chunk.size() + "] workflows in one transaction, " +
+                    "starting them one by one", e);
+            for (int i = 0; i < chunk.size(); i++) {
+                final WorkflowStartRequest startRequest = chunk.get(i);
+                try {
+                    String workflowInstanceId = txnHelper.doInTransaction(() -> startWorkflow(workflowDefinitionId,
+                            createWorkflowPackage(startRequest.getPackageFileNodeRefs()),
+                            startRequest.getProperties()), false, true);
+                    results.set(offset + i, new WorkflowStartResult(startRequest.getIsbn(),
+                            WorkflowStartResult.Status.STARTED, workflowInstanceId, null));
+                } catch (RuntimeException re) {
+                    LOG.error("Could not start workflow for ISBN " + startRequest.getIsbn() +
+                            " [workflowDefinitionId=" + workflowDefinitionId + "]", re);
+                    results.set(offset + i, new WorkflowStartResult(startRequest.getIsbn(),
+                            WorkflowStartResult.Status.FAILED, null, re.getMessage()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Start a workflow with a workflow package and end the start task.
+     * The passed in properties are not changed, so the call can be retried.
+     *
+     * @param workflowDefinitionId the deployed workflow definition id (e.g. activiti$bestpub-publishing-process:3:4608)
+     * @param workflowPackage      the workflow package (bpm_package)
+     * @param properties           the properties that the workflow instance should be started with
+     * @return the workflow instance id (e.g. activiti$23456)
+     */
+    private String startWorkflow(String workflowDefinitionId, NodeRef workflowPackage,
+                                 Map<QName, Serializable> properties) {
+        Map<QName, Serializable> startProperties = new HashMap<>(properties);
+        startProperties.put(WorkflowModel.ASSOC_PACKAGE, workflowPackage);
+        WorkflowPath workflowPath =
+                serviceRegistry.getWorkflowService().startWorkflow(workflowDefinitionId, startProperties);
+        String workflowInstanceId = workflowPath.getInstance().getId();
+        addBlobReferences(workflowInstanceId, properties);
+        endStartTask(workflowInstanceId);
+
+        return workflowInstanceId;
+    }
+
+    /**
+     * Create a workflow package (bpm_package) containing passed in files.
+     *
+     * @param packageFileNodeRefs the files that should be in the workflow package
+     * @return the workflow package node reference
+     */
+    private NodeRef createWorkflowPackage(List<NodeRef> packageFileNodeRefs) {
+        NodeRef workflowPackage = serviceRegistry.getWorkflowService().createPackage(null);
+        for (NodeRef packageFileNodeRef : packageFileNodeRefs) {
+            ChildAssociationRef childAssoc = serviceRegistry.getNodeService().getPrimaryParent(packageFileNodeRef);
+            serviceRegistry.getNodeService().addChild(workflowPackage, packageFileNodeRef,
+                    WorkflowModel.ASSOC_PACKAGE_CONTAINS, childAssoc.getQName());
+        }
+
+        return workflowPackage;
+    }
+
+    /**
+     * Complete the start task, otherwise the workflow will not start.
+     * Only ends the start task if it is still active.
+     *
+     * @param workflowInstanceId the workflow instance id (e.g. activiti$23456)
+     */
+    private void endStartTask(String workflowInstanceId) {
+        WorkflowTask startTask = serviceRegistry.getWorkflowService().getStartTask(workflowInstanceId);
+        if (startTask.getPath().isActive()) {
+            serviceRegistry.getWorkflowService().endTask(startTask.getId(), null);
+        }
+    }
+
+    /**
+     * Get the latest deployed workflow definition id for a workflow definition name.
+     * Ids are cached, the cache is cleared when a process definition is deployed to this repository,
+     * and entries expire after {@link #WORKFLOW_DEFINITION_ID_TTL_MILLIS}, so deployments done on
+     * other cluster members are picked up too.
+     *
+     * @param workflowDefinitionName the workflow definition name such as 'activiti$bestpub-publishing-process'
+     * @return the latest deployed workflow definition id such as 'activiti$bestpub-publishing-process:34:9311'
+     */
+    private String getLatestWorkflowDefinitionId(String workflowDefinitionName) {
+        registerProcessDefinitionDeployListener();
+
+        Pair<String, Long> workflowDefinitionId = workflowDefinitionIds.get(workflowDefinitionName);
+        if (workflowDefinitionId == null ||
+                System.currentTimeMillis() - workflowDefinitionId.getSecond() > WORKFLOW_DEFINITION_ID_TTL_MILLIS) {
+            WorkflowDefinition workflowDefinition =
+                    serviceRegistry.getWorkflowService().getDefinitionByName(workflowDefinitionName);
+            if (workflowDefinition == null) {
+                throw new WorkflowException("Workflow definition " + workflowDefinitionName + " is not deployed");
+            }
+            workflowDefinitionId = new Pair<>(workflowDefinition.getId(), System.currentTimeMillis());
+            workflowDefinitionIds.put(workflowDefinitionName, workflowDefinitionId);
+        }
+
+        return workflowDefinitionId.getFirst();
+    }
+
+    /**
+     * Clear the workflow definition id cache when a new process definition is deployed.
+     */
+    private void registerProcessDefinitionDeployListener() {
+        if (processDefinitionDeployListenerRegistered) {
+            return;
+        }
+
+        synchronized (workflowDefinitionIds) {
+            if (!processDefinitionDeployListenerRegistered) {
+                getActivitiRuntimeService().addEventListener(new ActivitiEventListener() {
+                    @Override
+                    public void onEvent(ActivitiEvent event) {
+                        if (event instanceof ActivitiEntityEvent &&
+                                ((ActivitiEntityEvent) event).getEntity() instanceof ProcessDefinition) {
+                            LOG.debug("Process definition deployed, clearing workflow definition id cache");
+                            workflowDefinitionIds.clear();
+                        }
+                    }
+
+                    @Override
+                    public boolean isFailOnException() {
+                        return false;
+                    }
+                }, ActivitiEventType.ENTITY_CREATED);
+                processDefinitionDeployListenerRegistered = true;
+            }
+        }
+    }
+
+    @Override
+    public SignalDelivery signalWorkflowForIsbn(String workflowDefinitionName, String isbn, String messageName,
+                                                Map<String, Object> variables) {
+        String processDefinitionKey = BPMEngineRegistry.getLocalId(workflowDefinitionName);
+
+        // Executions waiting for the message, correlated on ISBN
+        List<Execution> waitingExecutions = getActivitiRuntimeService().createExecutionQuery().
+                processDefinitionKey(processDefinitionKey).
+                messageEventSubscriptionName(messageName).
+                processVariableValueEquals(BestPubWorkflowModel.VAR_ISBN, isbn).
+                list();
+        if (!waitingExecutions.isEmpty()) {
+            for (Execution waitingExecution : waitingExecutions) {
+                getActivitiRuntimeService().messageEventReceived(messageName, waitingExecution.getId(), variables);
+            }
+
+            LOG.debug("Delivered message {} for ISBN {} to [{}] executions",
+                    new Object[]{messageName, isbn, waitingExecutions.size()});
+
+            return SignalDelivery.MESSAGE_DELIVERED;
+        }
+
+        // Nothing waiting for the message, leave the variables for the fallback timer check
+        List<ProcessInstance> activeProcessInstances = getActivitiRuntimeService().createProcessInstanceQuery().
+                processDefinitionKey(processDefinitionKey).
+                variableValueEquals(BestPubWorkflowModel.VAR_ISBN, isbn).
+                list();
+        if (activeProcessInstances.isEmpty()) {
+            LOG.debug("No active process for ISBN {} to deliver message {} to", isbn, messageName);
+            return SignalDelivery.NO_ACTIVE_PROCESS;
+        }
+        for (ProcessInstance activeProcessInstance : activeProcessInstances) {
+            getActivitiRuntimeService().setVariables(activeProcessInstance.getProcessInstanceId(), variables);
+        }
+
+        LOG.debug("No execution waiting for message {} for ISBN {}, set variables {} on [{}] process instances",
+                new Object[]{messageName, isbn, variables.keySet(), activeProcessInstances.size()});
+
+        return SignalDelivery.VARIABLES_SET;
+    }
+
     @Override
     public List<NodeRef> getWorkflowPackageItems(DelegateExecution exec) {
         List<NodeRef> packageItemNodeRefs = new ArrayList<NodeRef>();
@@ -374,5 +1298,32 @@ public class AlfrescoWorkflowUtilsServiceImpl implements AlfrescoWorkflowUtilsSe
         return this.activitiHistoryService;
     }
 
+    /**
+     * Get the Activiti Workflow engine Task service
+     *
+     * @return Activiti Task Service
+     */
+    private TaskService getActivitiTaskService() {
+        if (this.activitiTaskService == null) {
+            this.activitiTaskService =
+                    beanFactory.getBean(ACTIVITI_TASK_SERVICE_SPRING_BEAN_ID, TaskService.class);
+        }
+        return this.activitiTaskService;
+    }
+
+    /**
+     * Get the Activiti Workflow engine Management service
+     *
+     * @return Activiti Management Service
+     */
+    private ManagementService getActivitiManagementService() {
+        if (this.activitiManagementService == null) {
+            this.activitiManagementService =
+                    beanFactory.getBean(ACTIVITI_MANAGEMENT_SERVICE_SPRING_BEAN_ID, ManagementService.class);
+        }
+        return this.activitiManagementService;
+    }
+
+
 
 }
\ No newline at end of file
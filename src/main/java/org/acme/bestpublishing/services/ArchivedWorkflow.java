@@ -0,0 +1,105 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.services;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Summary of a completed workflow instance that has been archived and deleted from the Activiti history tables,
+ * returned by {@link WorkflowArchiveService#getArchivedWorkflows(String)}.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+public class ArchivedWorkflow implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String workflowInstanceId;
+    private final String processDefinitionId;
+    private final String isbn;
+    private final String startUserId;
+    private final Date startTime;
+    private final Date endTime;
+    private final String deleteReason;
+    private final Map<String, Serializable> variables;
+
+    public ArchivedWorkflow(String workflowInstanceId, String processDefinitionId, String isbn, String startUserId,
+                            Date startTime, Date endTime, String deleteReason, Map<String, Serializable> variables) {
+        this.workflowInstanceId = workflowInstanceId;
+        this.processDefinitionId = processDefinitionId;
+        this.isbn = isbn;
+        this.startUserId = startUserId;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.deleteReason = deleteReason;
+        this.variables = variables == null ?
+                Collections.<String, Serializable>emptyMap() : Collections.unmodifiableMap(variables);
+    }
+
+    /**
+     * @return the workflow instance id, such as activiti$23456
+     */
+    public String getWorkflowInstanceId() {
+        return workflowInstanceId;
+    }
+
+    /**
+     * @return the Activiti process definition id, such as bestpub-publishing-process:3:4608
+     */
+    public String getProcessDefinitionId() {
+        return processDefinitionId;
+    }
+
+    public String getIsbn() {
+        return isbn;
+    }
+
+    public String getStartUserId() {
+        return startUserId;
+    }
+
+    public Date getStartTime() {
+        return startTime;
+    }
+
+    public Date getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * @return why the process instance was ended early, such as cancelled, or null if it completed normally
+     */
+    public String getDeleteReason() {
+        return deleteReason;
+    }
+
+    /**
+     * @return the archived process variables that were set when the process instance completed
+     */
+    public Map<String, Serializable> getVariables() {
+        return variables;
+    }
+
+    @Override
+    public String toString() {
+        return "ArchivedWorkflow[workflowInstanceId=" + workflowInstanceId + "][isbn=" + isbn +
+                "][endTime=" + endTime + "]";
+    }
+}
@@ -17,6 +17,7 @@ limitations under the License.
 package org.acme.bestpublishing.services;
 
 import org.acme.bestpublishing.props.ChapterFolderProperties;
+import org.acme.bestpublishing.props.ChapterIndex;
 import org.alfresco.service.cmr.repository.NodeRef;
 
 import java.io.File;
@@ -64,6 +65,8 @@ public interface BestPubUtilsService {
      * Returns the {@link org.alfresco.service.cmr.repository.NodeRef} for a chapter folder in
      * /Company Home/Sites/book-management/documentLibrary/{year}/{isbn}
      * based on chapter number contained in passed in file name.
+     * Routed in memory with the ISBN folder's {@link ChapterRoutingTable}, which is built once per transaction,
+     * so placing all the files in an ingested ZIP only lists the chapter folders once.
      *
      * @param fileName              name of the file to extract chapter number from, for example 9780486282145-Chapter-001.xhtml
      *                              (naming convention: [ISBN]-Chapter-[chapter number].xhtml)
@@ -73,13 +76,35 @@ public interface BestPubUtilsService {
      */
     NodeRef getChapterDestinationFolder(String fileName, NodeRef destIsbnFolderNodeRef);
 
+    /**
+     * Get a routing table for all the chapter folders in an ISBN folder, built from one child listing.
+     * Each call builds a new table, {@link #getChapterDestinationFolder(String, NodeRef)} keeps one per transaction.
+     *
+     * @param isbnFolderNodeRef the node reference for the ISBN folder under
+     *                          /Company Home/Sites/book-management/documentLibrary/{year}
+     * @return the chapter routing table, empty if there are no chapter folders
+     */
+    ChapterRoutingTable getChapterRoutingTable(NodeRef isbnFolderNodeRef);
+
+    /**
+     * Get an index of all the chapter folders for an ISBN sorted on chapter number (1, 2, 3, ...),
+     * with chapter number, folder name, title, and author for each chapter.
+     * Chapter indexes are cached per ISBN folder, and invalidated when chapter folders or their chapter info change.
+     *
+     * @param isbnFolderNodeRef the alfresco node reference for the ISBN folder
+     * @return immutable chapter index, empty if there are no chapter folders
+     */
+    ChapterIndex getChapterIndex(NodeRef isbnFolderNodeRef);
+
     /**
      * Get all the chapter folders for an ISBN sorted on chapter number (1, 2, 3, ...).
      *
      * @param isbnFolderNodeRef the alfresco node reference for the ISBN folder
      * @return a tree map with all the node references for the chapter folders sorted on chapter number, starting with
      * first chapter
+     * @deprecated use {@link #getChapterIndex(NodeRef)}, which does not box chapter numbers or build a tree map
      */
+    @Deprecated
     public Map<ChapterFolderProperties, NodeRef> getSortedChapterFolders(NodeRef isbnFolderNodeRef);
 
     /**
@@ -99,7 +124,8 @@ public interface BestPubUtilsService {
 
     /**
      * Get the base folder for where content is stored for the book with passed in ISBN.
-     * This will be the /Company Home/Sites/book-management/documentLibrary/{current year}/{isbn} folder.
+     * This will be the /Company Home/Sites/book-management/documentLibrary/{year}/{isbn} folder,
+     * for any year, looked up in the ISBN to book folder index.
      *
      * @return and Alfresco Node Reference pointing to the ISBN folder
      */
@@ -114,6 +140,8 @@ public interface BestPubUtilsService {
 
     /**
      * Recursively check the ISBN's children for last modified dates that are after last published date.
+     * Uses the last content modified date rolled up to the ISBN folder if there is one, and then only searches
+     * the children further down than the rollup covers, otherwise searches all the ISBN's children.
      *
      * @param nodeRef ISBN node reference
      * @return last modified date, or null if it has not been modified since last published
@@ -130,7 +158,7 @@ public interface BestPubUtilsService {
     Date checkModifiedDates(NodeRef nodeRef, Date publishedDate);
 
     /**
-     * Returns true if passed in text is an ISBN 13 number, false if not
+     * Returns true if passed in text is an ISBN 13 number, with a valid check digit, false if not
      *
      * @param isbn text that is to be checked if it is an ISBN 13 number, such as for example '9780203093474'
      * @return true if it is an ISBN 13 number, false if not
@@ -143,6 +171,7 @@ public interface BestPubUtilsService {
      * @param filename the filename which contains an ISBN number,
      *                 such as 9780203093474.zip or 9780203093474_Law_Chapter 1 - 40.zip
      * @return the ISBN number contained in the filename, such as 9780203093474, or null if not found
+     *         or if the check digit is not valid
      */
     String getISBNfromFilename(String filename);
 
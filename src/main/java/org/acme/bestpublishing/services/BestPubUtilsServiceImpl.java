@@ -16,10 +16,18 @@ limitations under the License.
 */
 package org.acme.bestpublishing.services;
 
+import org.acme.bestpublishing.behaviours.LastContentModifiedRollup;
+import org.acme.bestpublishing.cache.ChapterIndexCache;
+import org.acme.bestpublishing.cache.IsbnBookFolderIndex;
 import org.acme.bestpublishing.model.BestPubMetadataFileModel;
+import org.acme.bestpublishing.model.BestPubUtilsModel.LastContentModifiedAspect;
 import org.acme.bestpublishing.props.ChapterFolderProperties;
+import org.acme.bestpublishing.props.ChapterIndex;
+import org.acme.bestpublishing.utils.IsbnUtils;
 import org.alfresco.model.ContentModel;
 import org.alfresco.repo.dictionary.constraint.ListOfValuesConstraint;
+import org.alfresco.repo.node.NodeBulkLoader;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
 import org.alfresco.service.ServiceRegistry;
 import org.alfresco.service.cmr.repository.ChildAssociationRef;
 import org.alfresco.service.cmr.repository.NodeRef;
@@ -34,7 +42,6 @@ import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.regex.Matcher;
 
 import static org.acme.bestpublishing.constants.BestPubConstants.*;
 import static org.acme.bestpublishing.model.BestPubContentModel.*;
@@ -54,6 +61,12 @@ public class BestPubUtilsServiceImpl implements BestPubUtilsService {
      */
     private static final String FAILED_PROCESSING_DIR_NAME = "failedProcessing";
 
+    /**
+     * Transaction resource key for the chapter routing tables built in the current transaction
+     */
+    private static final String TXN_KEY_CHAPTER_ROUTING_TABLES =
+            BestPubUtilsServiceImpl.class.getName() + ".chapterRoutingTables";
+
     /**
      * Best Publishing Services
      */
@@ -63,6 +76,22 @@ public class BestPubUtilsServiceImpl implements BestPubUtilsService {
      * Alfresco Services
      */
     private ServiceRegistry serviceRegistry;
+    private NodeBulkLoader nodeBulkLoader;
+
+    /**
+     * Cache of chapter indexes per ISBN folder
+     */
+    private ChapterIndexCache chapterIndexCache;
+
+    /**
+     * Index of ISBN to book folder for all years
+     */
+    private IsbnBookFolderIndex isbnBookFolderIndex;
+
+    /**
+     * Number of nodes to fetch per page when searching book sub-trees
+     */
+    private int searchPageSize;
 
     /**
      * Spring Dependency Injection
@@ -76,6 +105,22 @@ public class BestPubUtilsServiceImpl implements BestPubUtilsService {
         this.serviceRegistry = serviceRegistry;
     }
 
+    public void setNodeBulkLoader(NodeBulkLoader nodeBulkLoader) {
+        this.nodeBulkLoader = nodeBulkLoader;
+    }
+
+    public void setChapterIndexCache(ChapterIndexCache chapterIndexCache) {
+        this.chapterIndexCache = chapterIndexCache;
+    }
+
+    public void setIsbnBookFolderIndex(IsbnBookFolderIndex isbnBookFolderIndex) {
+        this.isbnBookFolderIndex = isbnBookFolderIndex;
+    }
+
+    public void setSearchPageSize(int searchPageSize) {
+        this.searchPageSize = searchPageSize;
+    }
+
     /**
      * Interface Implementation
      */
@@ -112,52 +157,180 @@ public class BestPubUtilsServiceImpl implements BestPubUtilsService {
     public NodeRef getChapterDestinationFolder(String fileName, NodeRef destIsbnFolderNodeRef) {
         // Filename naming convention: [ISBN]-Chapter-[chapter number].xhtml
         // Such as 9780486282145-Chapter-001.xhtml
-        int indexOfDot = fileName.lastIndexOf('.');
-        int indexOfLastDash = indexOfDot - 4;
-        int chapterNr = Integer.parseInt(fileName.substring(indexOfLastDash + 1, indexOfDot));
-        if (chapterNr < 0 || chapterNr > 200) {
+        int chapterNr = ChapterRoutingTable.parseChapterFileNumber(fileName);
+        if (chapterNr == ChapterRoutingTable.NO_CHAPTER_NUMBER) {
             LOG.error("Incorrect chapter number from filename [{}]", fileName);
             return null;
         }
 
-        NodeRef chapterFolderNodeRef = alfrescoRepoUtilsService.getChildByName(
+        // Route with the ISBN folder's routing table for this transaction, so placing all the files in a ZIP
+        // only lists the chapter folders once
+        ChapterRoutingTable routingTable = getTransactionChapterRoutingTable(destIsbnFolderNodeRef);
+        NodeRef chapterFolderNodeRef = routingTable.getChapterFolder(chapterNr);
+        if (chapterFolderNodeRef != null && serviceRegistry.getNodeService().exists(chapterFolderNodeRef)) {
+            return chapterFolderNodeRef;
+        }
+
+        // Chapter folder could have been created after the routing table was built
+        chapterFolderNodeRef = alfrescoRepoUtilsService.getChildByName(
                 destIsbnFolderNodeRef, getChapterFolderName(chapterNr));
+        if (chapterFolderNodeRef != null && chapterNr <= ChapterRoutingTable.MAX_CHAPTER_NUMBER) {
+            routingTable.addChapterFolder(chapterNr, chapterFolderNodeRef);
+        }
 
         return chapterFolderNodeRef;
     }
 
+    /**
+     * Get the chapter routing table for an ISBN folder, built once per transaction.
+     *
+     * @param isbnFolderNodeRef the node reference for the ISBN folder
+     * @return the chapter routing table
+     */
+    private ChapterRoutingTable getTransactionChapterRoutingTable(NodeRef isbnFolderNodeRef) {
+        if (AlfrescoTransactionSupport.getTransactionReadState() == AlfrescoTransactionSupport.TxnReadState.TXN_NONE) {
+            return getChapterRoutingTable(isbnFolderNodeRef);
+        }
+
+        Map<NodeRef, ChapterRoutingTable> routingTables =
+                AlfrescoTransactionSupport.getResource(TXN_KEY_CHAPTER_ROUTING_TABLES);
+        if (routingTables == null) {
+            routingTables = new HashMap<>();
+            AlfrescoTransactionSupport.bindResource(TXN_KEY_CHAPTER_ROUTING_TABLES, routingTables);
+        }
+        ChapterRoutingTable routingTable = routingTables.get(isbnFolderNodeRef);
+        if (routingTable == null) {
+            routingTable = getChapterRoutingTable(isbnFolderNodeRef);
+            routingTables.put(isbnFolderNodeRef, routingTable);
+        }
+
+        return routingTable;
+    }
+
     @Override
-    public Map<ChapterFolderProperties, NodeRef> getSortedChapterFolders(NodeRef isbnFolderNodeRef) {
+    public ChapterRoutingTable getChapterRoutingTable(NodeRef isbnFolderNodeRef) {
         Set<QName> childNodeTypes = new HashSet<>();
         childNodeTypes.add(ChapterFolderType.QNAME);
         List<ChildAssociationRef> chapterFolderChildAssociations =
                 serviceRegistry.getNodeService().getChildAssocs(isbnFolderNodeRef, childNodeTypes);
 
-        Map<ChapterFolderProperties, NodeRef> existingChapterFolderProps2NodeRefMap = new TreeMap<>();
+        ChapterRoutingTable routingTable = new ChapterRoutingTable();
+        for (ChildAssociationRef chapterFolderChildAssoc : chapterFolderChildAssociations) {
+            NodeRef chapterFolderNodeRef = chapterFolderChildAssoc.getChildRef();
 
+            // Association name is the same as the folder name (chapter-N), so we don't need to read properties
+            int chapterNr = ChapterRoutingTable.parseChapterFolderNumber(
+                    chapterFolderChildAssoc.getQName().getLocalName());
+            if (chapterNr == ChapterRoutingTable.NO_CHAPTER_NUMBER) {
+                chapterNr = ChapterRoutingTable.parseChapterFolderNumber((String) serviceRegistry.getNodeService().
+                        getProperty(chapterFolderNodeRef, ContentModel.PROP_NAME));
+            }
+            if (chapterNr == ChapterRoutingTable.NO_CHAPTER_NUMBER ||
+                    chapterNr > ChapterRoutingTable.MAX_CHAPTER_NUMBER) {
+                LOG.warn("Could not get chapter number for chapter folder [{}], skipping it", chapterFolderNodeRef);
+                continue;
+            }
+
+            routingTable.addChapterFolder(chapterNr, chapterFolderNodeRef);
+        }
+
+        LOG.debug("Built chapter routing table with [{}] chapter folders for [{}]",
+                routingTable.getNumberOfChapterFolders(), isbnFolderNodeRef);
+
+        return routingTable;
+    }
+
+    @Override
+    public ChapterIndex getChapterIndex(NodeRef isbnFolderNodeRef) {
+        ChapterIndex chapterIndex = chapterIndexCache.get(isbnFolderNodeRef);
+        if (chapterIndex == null) {
+            chapterIndex = loadChapterIndex(isbnFolderNodeRef);
+            if (chapterIndexCache.isCacheable(isbnFolderNodeRef)) {
+                chapterIndexCache.put(isbnFolderNodeRef, chapterIndex);
+            }
+        }
+
+        return chapterIndex;
+    }
+
+    /**
+     * Load the chapter index for an ISBN folder from the repository.
+     * All the chapter folder nodes are bulk loaded, so reading their properties does not need a query per folder.
+     *
+     * @param isbnFolderNodeRef the alfresco node reference for the ISBN folder
+     * @return the chapter index
+     */
+    private ChapterIndex loadChapterIndex(NodeRef isbnFolderNodeRef) {
+        Set<QName> childNodeTypes = new HashSet<>();
+        childNodeTypes.add(ChapterFolderType.QNAME);
+        List<ChildAssociationRef> chapterFolderChildAssociations =
+                serviceRegistry.getNodeService().getChildAssocs(isbnFolderNodeRef, childNodeTypes);
+
+        List<NodeRef> chapterFolderNodeRefs = new ArrayList<>(chapterFolderChildAssociations.size());
+        for (ChildAssociationRef chapterFolderChildAssoc : chapterFolderChildAssociations) {
+            chapterFolderNodeRefs.add(chapterFolderChildAssoc.getChildRef());
+        }
+        nodeBulkLoader.cacheNodes(chapterFolderNodeRefs);
+
+        ChapterIndex.Builder chapterIndexBuilder = new ChapterIndex.Builder();
         for (ChildAssociationRef chapterFolderChildAssoc : chapterFolderChildAssociations) {
             NodeRef chapterFolderNodeRef = chapterFolderChildAssoc.getChildRef();
-            ChapterFolderProperties chapterFolderProps = new ChapterFolderProperties();
+            Map<QName, Serializable> chapterFolderProps =
+                    serviceRegistry.getNodeService().getProperties(chapterFolderNodeRef);
+
+            String chapterFolderName = (String) chapterFolderProps.get(ContentModel.PROP_NAME);
+            Integer chapterNr = (Integer) chapterFolderProps.get(ChapterInfoAspect.Prop.CHAPTER_NUMBER);
+            chapterIndexBuilder.addChapter(
+                    chapterNr != null ? chapterNr : ChapterRoutingTable.parseChapterFolderNumber(chapterFolderName),
+                    chapterFolderName,
+                    (String) chapterFolderProps.get(ChapterInfoAspect.Prop.CHAPTER_TITLE),
+                    (String) chapterFolderProps.get(ChapterInfoAspect.Prop.CHAPTER_AUTHOR_NAME),
+                    chapterFolderNodeRef);
+        }
+
+        ChapterIndex chapterIndex = chapterIndexBuilder.build();
+        LOG.debug("Loaded chapter index {} for [{}]", chapterIndex, isbnFolderNodeRef);
+
+        return chapterIndex;
+    }
+
+    @Override
+    @Deprecated
+    public Map<ChapterFolderProperties, NodeRef> getSortedChapterFolders(NodeRef isbnFolderNodeRef) {
+        ChapterIndex chapterIndex = getChapterIndex(isbnFolderNodeRef);
+        Map<ChapterFolderProperties, NodeRef> existingChapterFolderProps2NodeRefMap = new TreeMap<>();
+
+        for (int i = 0; i < chapterIndex.size(); i++) {
+            if (chapterIndex.getChapterNumber(i) == ChapterIndex.NO_CHAPTER) {
+                // Cannot be sorted
+                continue;
+            }
 
-            String chapterFolderName = (String) serviceRegistry.getNodeService().getProperty(
-                    chapterFolderNodeRef, ContentModel.PROP_NAME);
-            chapterFolderProps.put(BestPubMetadataFileModel.CHAPTER_FOLDER_NAME_PROP_NAME, chapterFolderName);
-            Integer chapterNr = (Integer)serviceRegistry.getNodeService().getProperty(
-                    chapterFolderNodeRef, ChapterInfoAspect.Prop.CHAPTER_NUMBER);
-            chapterFolderProps.put(BestPubMetadataFileModel.CHAPTER_METADATA_NUMBER_PROP_NAME, chapterNr);
-            String chapterTitle = (String) serviceRegistry.getNodeService().getProperty(
-                    chapterFolderNodeRef, ChapterInfoAspect.Prop.CHAPTER_TITLE);
-            chapterFolderProps.put(BestPubMetadataFileModel.CHAPTER_METADATA_TITLE_PROP_NAME, chapterTitle);
-            String chapterAuthor = (String) serviceRegistry.getNodeService().getProperty(
-                    chapterFolderNodeRef, ChapterInfoAspect.Prop.CHAPTER_AUTHOR_NAME);
-            chapterFolderProps.put(BestPubMetadataFileModel.CHAPTER_METADATA_AUTHOR_PROP_NAME, chapterAuthor);
-
-            existingChapterFolderProps2NodeRefMap.put(chapterFolderProps, chapterFolderNodeRef);
+            ChapterFolderProperties chapterFolderProps = new ChapterFolderProperties();
+            putIfNotNull(chapterFolderProps, BestPubMetadataFileModel.CHAPTER_FOLDER_NAME_PROP_NAME,
+                    chapterIndex.getFolderName(i));
+            chapterFolderProps.put(BestPubMetadataFileModel.CHAPTER_METADATA_NUMBER_PROP_NAME,
+                    chapterIndex.getChapterNumber(i));
+            putIfNotNull(chapterFolderProps, BestPubMetadataFileModel.CHAPTER_METADATA_TITLE_PROP_NAME,
+                    chapterIndex.getTitle(i));
+            putIfNotNull(chapterFolderProps, BestPubMetadataFileModel.CHAPTER_METADATA_AUTHOR_PROP_NAME,
+                    chapterIndex.getAuthor(i));
+
+            existingChapterFolderProps2NodeRefMap.put(chapterFolderProps, chapterIndex.getFolderNodeRef(i));
         }
 
         return existingChapterFolderProps2NodeRefMap;
     }
 
+    /**
+     * Properties does not allow null values.
+     */
+    private void putIfNotNull(Properties props, String name, Object value) {
+        if (value != null) {
+            props.put(name, value);
+        }
+    }
+
     @Override
     public NodeRef getBaseFolderForBooks() {
         Integer year = Calendar.getInstance().get(Calendar.YEAR);
@@ -168,8 +341,23 @@ public class BestPubUtilsServiceImpl implements BestPubUtilsService {
 
     @Override
     public NodeRef getBaseFolderForIsbn(String isbn) {
-        NodeRef baseFolderForBooksNodeRef = getBaseFolderForBooks();
-        NodeRef isbnFolderNodeRef = alfrescoRepoUtilsService.getChildByName(baseFolderForBooksNodeRef, isbn);
+        NodeRef isbnFolderNodeRef = isbnBookFolderIndex.getBookFolder(isbn);
+        if (isbnFolderNodeRef != null) {
+            return isbnFolderNodeRef;
+        }
+
+        // Not in the index, look in the current year folder, without creating it
+        Integer year = Calendar.getInstance().get(Calendar.YEAR);
+        NodeRef docLibNodeRef = alfrescoRepoUtilsService.getNodeByDisplayPath(getBookManagementSiteDocLibPath());
+        NodeRef baseFolderForBooksNodeRef = alfrescoRepoUtilsService.getChildByName(docLibNodeRef, year.toString());
+        if (baseFolderForBooksNodeRef == null) {
+            return null;
+        }
+        isbnFolderNodeRef = alfrescoRepoUtilsService.getChildByName(baseFolderForBooksNodeRef, isbn);
+        if (isbnFolderNodeRef != null && AlfrescoTransactionSupport.getTransactionReadState() ==
+                AlfrescoTransactionSupport.TxnReadState.TXN_READ_WRITE) {
+            isbnBookFolderIndex.addBookFolder(isbn, isbnFolderNodeRef);
+        }
 
         return isbnFolderNodeRef;
     }
@@ -195,13 +383,45 @@ public class BestPubUtilsServiceImpl implements BestPubUtilsService {
 
         String nodeRefXPath = serviceRegistry.getNodeService().getPath(nodeRef).
                 toPrefixString(serviceRegistry.getNamespaceService());
+
+        // Use the rolled up last modified date if the book folder has one,
+        // and only search the nodes further down than the rollup covers
+        if (serviceRegistry.getNodeService().hasAspect(nodeRef, LastContentModifiedAspect.QNAME)) {
+            Date lastContentModified = (Date) serviceRegistry.getNodeService().getProperty(
+                    nodeRef, LastContentModifiedAspect.Prop.LAST_CONTENT_MODIFIED);
+            StringBuilder uncoveredPath = new StringBuilder(nodeRefXPath);
+            for (int depth = 0; depth < LastContentModifiedRollup.MAX_BOOK_FOLDER_DEPTH; depth++) {
+                uncoveredPath.append("/*");
+            }
+            Date latestUncoveredModificationDate = searchLatestModifiedDate(uncoveredPath + "//*", publishedDate);
+            if (lastContentModified == null || !lastContentModified.after(publishedDate)) {
+                return latestUncoveredModificationDate;
+            }
+            if (latestUncoveredModificationDate != null && latestUncoveredModificationDate.after(lastContentModified)) {
+                return latestUncoveredModificationDate;
+            }
+            return lastContentModified;
+        }
+
+        // Not modified since the rollup was introduced, search the ISBN's children
+        return searchLatestModifiedDate(nodeRefXPath + "//*", publishedDate);
+    }
+
+    /**
+     * Search for the latest modified date after the published date for the nodes matching a path.
+     *
+     * @param path          the path to search, such as the ISBN folder path followed by //*
+     * @param publishedDate the date the book was last published
+     * @return the latest modified date after the published date, or null if no node was modified after it
+     */
+    private Date searchLatestModifiedDate(String path, Date publishedDate) {
         String publishedDateString = ISO8601DateFormat.format(publishedDate);
-        String searchQuery =
-                "PATH:\"" + nodeRefXPath + "//*\" AND @cm\\:modified:[" + publishedDateString + " TO NOW]";
+        String searchQuery = "PATH:\"" + path + "\" AND @cm\\:modified:[" + publishedDateString + " TO NOW]";
         Date latestModificationDate = null;
 
-        List<NodeRef> modifiedNodeRefs = alfrescoRepoUtilsService.search(searchQuery);
-        for (NodeRef modifiedIsbnChildNode : modifiedNodeRefs) {
+        Iterator<NodeRef> modifiedNodeRefs = alfrescoRepoUtilsService.searchIterator(searchQuery, searchPageSize);
+        while (modifiedNodeRefs.hasNext()) {
+            NodeRef modifiedIsbnChildNode = modifiedNodeRefs.next();
             Date modifiedDate = (Date) serviceRegistry.getNodeService().getProperty(
                     modifiedIsbnChildNode, ContentModel.PROP_MODIFIED);
             if (modifiedDate.after(publishedDate)) {
@@ -231,23 +451,18 @@ public class BestPubUtilsServiceImpl implements BestPubUtilsService {
 
     @Override
     public boolean isISBN(String isbn) {
-        Matcher isbnMatcher = ISBN_REGEXP_PATTERN.matcher(isbn);
-        if (isbnMatcher.matches() == false) {
-            return false;
-        }
-
-        return true;
+        return IsbnUtils.isIsbn13(isbn);
     }
 
     @Override
     public String getISBNfromFilename(String filename) {
-        String isbn = filename.trim().substring(0, ISBN_NUMBER_LENGTH);
-        if (!isISBN(isbn)) {
+        long isbn = IsbnUtils.parseIsbn13FromFilename(filename);
+        if (isbn == IsbnUtils.NO_ISBN) {
             LOG.error("Could not extract ISBN number from [{}]", filename);
             return null;
         }
 
-        return isbn;
+        return Long.toString(isbn);
     }
 
     @Override
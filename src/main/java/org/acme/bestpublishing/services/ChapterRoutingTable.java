@@ -0,0 +1,196 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.services;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+
+import java.util.Arrays;
+
+import static org.acme.bestpublishing.constants.BestPubConstants.CHAPTER_FOLDER_NAME_PREFIX;
+
+/**
+ * Routes chapter files to chapter folders for one ISBN, using chapter number as index into an array
+ * of chapter folder node references. Built once from the ISBN folder's children, so all the files
+ * in an ingested ZIP can be routed in memory without any repository lookups.
+ * <p>
+ * Not thread safe while being built, read only after that.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+public class ChapterRoutingTable {
+
+    /**
+     * Returned when a name does not contain a chapter number
+     */
+    public static final int NO_CHAPTER_NUMBER = -1;
+
+    /**
+     * Chapter folder name prefix including dash, such as 'chapter-'
+     */
+    private static final String CHAPTER_FOLDER_PREFIX = CHAPTER_FOLDER_NAME_PREFIX + "-";
+
+    /**
+     * Highest chapter number that can be routed, guards against allocating a huge table for a bad folder name
+     */
+    public static final int MAX_CHAPTER_NUMBER = 99999;
+
+    /**
+     * Initial capacity, enough for most books
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Chapter number -> chapter folder node reference
+     */
+    private NodeRef[] chapterFolders = new NodeRef[INITIAL_CAPACITY];
+    private int highestChapterNumber = NO_CHAPTER_NUMBER;
+    private int numberOfChapterFolders;
+
+    /**
+     * Add a chapter folder to the routing table.
+     *
+     * @param chapterNumber         the chapter number, such as 9
+     * @param chapterFolderNodeRef  the chapter folder, such as chapter-9
+     */
+    public void addChapterFolder(int chapterNumber, NodeRef chapterFolderNodeRef) {
+        if (chapterNumber < 0 || chapterNumber > MAX_CHAPTER_NUMBER) {
+            throw new IllegalArgumentException("Chapter number must be between 0 and " + MAX_CHAPTER_NUMBER +
+                    " [" + chapterNumber + "]");
+        }
+        if (chapterNumber >= chapterFolders.length) {
+            chapterFolders = Arrays.copyOf(chapterFolders, Math.max(chapterNumber + 1, chapterFolders.length * 2));
+        }
+        if (chapterFolders[chapterNumber] == null) {
+            numberOfChapterFolders++;
+        }
+        chapterFolders[chapterNumber] = chapterFolderNodeRef;
+        highestChapterNumber = Math.max(highestChapterNumber, chapterNumber);
+    }
+
+    /**
+     * Get the chapter folder for a chapter number.
+     *
+     * @param chapterNumber the chapter number, such as 9
+     * @return the chapter folder node reference, or null if there is no folder for the chapter
+     */
+    public NodeRef getChapterFolder(int chapterNumber) {
+        if (chapterNumber < 0 || chapterNumber > highestChapterNumber) {
+            return null;
+        }
+
+        return chapterFolders[chapterNumber];
+    }
+
+    /**
+     * Get the chapter folder for a chapter file.
+     *
+     * @param fileName the chapter file name, such as 9780486282145-Chapter-001.xhtml
+     * @return the chapter folder node reference, or null if the file name has no chapter number
+     * or there is no folder for the chapter
+     */
+    public NodeRef route(CharSequence fileName) {
+        return getChapterFolder(parseChapterFileNumber(fileName));
+    }
+
+    public int getHighestChapterNumber() {
+        return highestChapterNumber;
+    }
+
+    public int getNumberOfChapterFolders() {
+        return numberOfChapterFolders;
+    }
+
+    /**
+     * Parse the chapter number from a chapter file name, without creating any objects.
+     * Naming convention: [ISBN]-Chapter-[chapter number].[extension], such as 9780486282145-Chapter-001.xhtml,
+     * the chapter number can have any number of digits.
+     *
+     * @param fileName the chapter file name
+     * @return the chapter number, such as 1, or {@link #NO_CHAPTER_NUMBER} if the name does not follow the convention
+     */
+    public static int parseChapterFileNumber(CharSequence fileName) {
+        if (fileName == null) {
+            return NO_CHAPTER_NUMBER;
+        }
+
+        int end = fileName.length();
+        for (int i = end - 1; i >= 0; i--) {
+            if (fileName.charAt(i) == '.') {
+                end = i;
+                break;
+            }
+        }
+
+        int start = end;
+        while (start > 0 && Character.isDigit(fileName.charAt(start - 1))) {
+            start--;
+        }
+        if (start == 0 || fileName.charAt(start - 1) != '-') {
+            return NO_CHAPTER_NUMBER;
+        }
+
+        return parseNumber(fileName, start, end);
+    }
+
+    /**
+     * Parse the chapter number from a chapter folder name or association local name, such as chapter-9.
+     *
+     * @param name the chapter folder name
+     * @return the chapter number, such as 9, or {@link #NO_CHAPTER_NUMBER} if it is not a chapter folder name
+     */
+    public static int parseChapterFolderNumber(CharSequence name) {
+        if (name == null || name.length() <= CHAPTER_FOLDER_PREFIX.length()) {
+            return NO_CHAPTER_NUMBER;
+        }
+        for (int i = 0; i < CHAPTER_FOLDER_PREFIX.length(); i++) {
+            if (name.charAt(i) != CHAPTER_FOLDER_PREFIX.charAt(i)) {
+                return NO_CHAPTER_NUMBER;
+            }
+        }
+
+        return parseNumber(name, CHAPTER_FOLDER_PREFIX.length(), name.length());
+    }
+
+    /**
+     * Parse a non-negative decimal number from a range of characters.
+     *
+     * @param text  the text containing the number
+     * @param start start index, inclusive
+     * @param end   end index, exclusive
+     * @return the number, or {@link #NO_CHAPTER_NUMBER} if the range is empty, not all digits, or too big
+     */
+    private static int parseNumber(CharSequence text, int start, int end) {
+        if (start >= end) {
+            return NO_CHAPTER_NUMBER;
+        }
+
+        long number = 0;
+        for (int i = start; i < end; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return NO_CHAPTER_NUMBER;
+            }
+            number = number * 10 + digit;
+            if (number > Integer.MAX_VALUE) {
+                return NO_CHAPTER_NUMBER;
+            }
+        }
+
+        return (int) number;
+    }
+}
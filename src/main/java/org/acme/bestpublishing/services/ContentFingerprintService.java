@@ -0,0 +1,94 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.services;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * Content fingerprints (content hashes) stored with the file node in the bpu:contentFingerprint aspect.
+ * <p>
+ * A stored fingerprint is only valid for the content URL it was computed for,
+ * so any content update automatically makes it stale without the need for a behaviour.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+public interface ContentFingerprintService {
+
+    /**
+     * Create a message digest for the fingerprint hash algorithm, can be used to compute
+     * the fingerprint inline while content is written (e.g. with a DigestInputStream).
+     *
+     * @return a new message digest
+     */
+    MessageDigest createDigest();
+
+    /**
+     * Store a fingerprint computed while the content was written for the file node.
+     * Should be called after the content has been written to the node.
+     *
+     * @param fileNodeRef the file node reference
+     * @param digest      the digest bytes computed with a digest from {@link #createDigest()}
+     */
+    void storeFingerprint(NodeRef fileNodeRef, byte[] digest);
+
+    /**
+     * Get the fingerprint for the content of passed in file node. If there is no valid fingerprint
+     * stored for the node it is computed from the content, but not stored, this never writes to the node.
+     * Fingerprints are stored when files are created, and for existing files by the background back-fill.
+     *
+     * @param fileNodeRef the file node reference
+     * @return the fingerprint as a hex string, or null if the node has no content
+     */
+    String getFingerprint(NodeRef fileNodeRef);
+
+    /**
+     * Compares the content of two files. Checks content URL and size first,
+     * and then fingerprints, so content is only read if a file does not yet have a fingerprint.
+     *
+     * @param file1NodeRef the first file node reference
+     * @param file2NodeRef the second file node reference
+     * @return true if both files have the same content, false if they have different content
+     */
+    boolean hasSameContent(NodeRef file1NodeRef, NodeRef file2NodeRef);
+
+    /**
+     * Find files that do not yet have a fingerprint, used when back-filling fingerprints.
+     * Files are returned in node DB id order, starting after passed in node DB id,
+     * so the caller can page through them with the DB id of the last file as cursor.
+     *
+     * @param afterNodeDbId only return files with a node DB id greater than this, 0 to start from the beginning
+     * @param maxItems      max number of files to return
+     * @return file node references without fingerprint, or empty list
+     */
+    List<NodeRef> findFilesWithoutFingerprint(long afterNodeDbId, int maxItems);
+
+    /**
+     * Compute and store the fingerprint for a file found by {@link #findFilesWithoutFingerprint(long, int)}.
+     * Files that cannot have a fingerprint, as they have no content or the content is missing
+     * from the content store, are marked with an empty fingerprint so they are not found again.
+     * Locked files are left as they are and picked up again by a later back-fill.
+     * Requires a read-write transaction.
+     *
+     * @param fileNodeRef the file node reference
+     * @return true if a fingerprint was computed and stored, false otherwise
+     */
+    boolean backfillFingerprint(NodeRef fileNodeRef);
+}
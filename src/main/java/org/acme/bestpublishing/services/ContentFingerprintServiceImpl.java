@@ -0,0 +1,307 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.services;
+
+import org.acme.bestpublishing.model.BestPubUtilsModel.ContentFingerprintAspect;
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.policy.BehaviourFilter;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.lock.LockStatus;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.search.ResultSet;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.search.SearchService;
+import org.alfresco.service.namespace.QName;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Implementation of the content fingerprint service.
+ * <p>
+ * Note. these are non-transactional call requiring an existing transaction to be in place.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+public class ContentFingerprintServiceImpl implements ContentFingerprintService {
+    private static final Logger LOG = LoggerFactory.getLogger(ContentFingerprintServiceImpl.class);
+
+    /**
+     * Hash type to use when computing content fingerprints
+     */
+    private static final String SHA256_HASH_TYPE = "SHA-256";
+
+    /**
+     * Buffer when reading content bytes
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Alfresco Services
+     */
+    private ServiceRegistry serviceRegistry;
+    private BehaviourFilter behaviourFilter;
+
+    /**
+     * Lucene PATH expression for where to look for files without fingerprints when back-filling,
+     * such as /app:company_home/st:sites/cm:book-management//*
+     */
+    private String backfillPath;
+
+    /**
+     * Spring Dependency Injection
+     */
+    public void setServiceRegistry(ServiceRegistry serviceRegistry) {
+        this.serviceRegistry = serviceRegistry;
+    }
+
+    public void setBehaviourFilter(BehaviourFilter behaviourFilter) {
+        this.behaviourFilter = behaviourFilter;
+    }
+
+    public void setBackfillPath(String backfillPath) {
+        this.backfillPath = backfillPath;
+    }
+
+    /**
+     * Interface Implementation
+     */
+
+    @Override
+    public MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(SHA256_HASH_TYPE);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException("No hash algorithm of type [" + SHA256_HASH_TYPE + "]", e);
+        }
+    }
+
+    @Override
+    public void storeFingerprint(NodeRef fileNodeRef, byte[] digest) {
+        ContentData contentData = getContentData(fileNodeRef);
+        if (contentData == null) {
+            LOG.error("Cannot store fingerprint for [{}], it has no content", fileNodeRef);
+            return;
+        }
+
+        saveFingerprint(fileNodeRef, convertByteArrayToHex(digest), contentData.getContentUrl());
+    }
+
+    @Override
+    public String getFingerprint(NodeRef fileNodeRef) {
+        ContentData contentData = getContentData(fileNodeRef);
+        if (contentData == null) {
+            return null;
+        }
+
+        // Use the stored fingerprint if it was computed for the current content
+        Map<QName, Serializable> props = serviceRegistry.getNodeService().getProperties(fileNodeRef);
+        String storedHash = (String) props.get(ContentFingerprintAspect.Prop.CONTENT_HASH);
+        if (storedHash != null &&
+                StringUtils.equals(contentData.getContentUrl(),
+                        (String) props.get(ContentFingerprintAspect.Prop.CONTENT_HASH_URL)) &&
+                SHA256_HASH_TYPE.equals(props.get(ContentFingerprintAspect.Prop.CONTENT_HASH_ALGORITHM))) {
+            return storedHash;
+        }
+
+        // Compute it, it is stored by the background back-fill, so reads never write to the node
+        ContentReader reader = serviceRegistry.getContentService().getReader(fileNodeRef, ContentModel.PROP_CONTENT);
+        if (reader == null || !reader.exists()) {
+            LOG.error("Content reader not available for [{}], cannot compute fingerprint", fileNodeRef);
+            return null;
+        }
+
+        return computeHash(reader.getContentInputStream());
+    }
+
+    @Override
+    public boolean hasSameContent(NodeRef file1NodeRef, NodeRef file2NodeRef) {
+        if (file1NodeRef.equals(file2NodeRef)) {
+            return true;
+        }
+
+        ContentData contentData1 = getContentData(file1NodeRef);
+        ContentData contentData2 = getContentData(file2NodeRef);
+        if (contentData1 == null || contentData2 == null) {
+            return contentData1 == contentData2;
+        }
+
+        // Same physical content in the content store
+        if (StringUtils.equals(contentData1.getContentUrl(), contentData2.getContentUrl())) {
+            return true;
+        }
+
+        if (contentData1.getSize() != contentData2.getSize()) {
+            return false;
+        }
+
+        return StringUtils.equals(getFingerprint(file1NodeRef), getFingerprint(file2NodeRef));
+    }
+
+    @Override
+    public List<NodeRef> findFilesWithoutFingerprint(long afterNodeDbId, int maxItems) {
+        String query = "PATH:\"" + backfillPath + "\" AND TYPE:\"cm:content\" AND NOT ASPECT:\"" +
+                ContentFingerprintAspect.QNAME.toPrefixString(serviceRegistry.getNamespaceService()) + "\"" +
+                " AND @sys\\:node\\-dbid:[" + (afterNodeDbId + 1) + " TO MAX]";
+
+        SearchParameters sp = new SearchParameters();
+        sp.addStore(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
+        sp.setLanguage(SearchService.LANGUAGE_LUCENE);
+        sp.setQuery(query);
+        sp.setMaxItems(maxItems);
+        sp.addSort("@" + ContentModel.PROP_NODE_DBID, true);
+
+        ResultSet results = null;
+        try {
+            results = serviceRegistry.getSearchService().query(sp);
+            return results.getNodeRefs();
+        } finally {
+            if (results != null) {
+                results.close();
+            }
+        }
+    }
+
+    @Override
+    public boolean backfillFingerprint(NodeRef fileNodeRef) {
+        ContentData contentData = getContentData(fileNodeRef);
+        if (contentData == null) {
+            LOG.debug("File [{}] has no content, marking it as not having a fingerprint", fileNodeRef);
+            saveFingerprint(fileNodeRef, null, null);
+            return false;
+        }
+
+        ContentReader reader = serviceRegistry.getContentService().getReader(fileNodeRef, ContentModel.PROP_CONTENT);
+        if (reader == null || !reader.exists()) {
+            LOG.warn("Content missing for [{}], marking it as not having a fingerprint", fileNodeRef);
+            saveFingerprint(fileNodeRef, null, contentData.getContentUrl());
+            return false;
+        }
+
+        String hash = computeHash(reader.getContentInputStream());
+        if (hash == null) {
+            return false;
+        }
+
+        return saveFingerprint(fileNodeRef, hash, contentData.getContentUrl());
+    }
+
+    /**
+     * Get the content data property for a file node.
+     *
+     * @param fileNodeRef the file node reference
+     * @return the content data, or null if no content
+     */
+    private ContentData getContentData(NodeRef fileNodeRef) {
+        return (ContentData) serviceRegistry.getNodeService().getProperty(fileNodeRef, ContentModel.PROP_CONTENT);
+    }
+
+    /**
+     * Save fingerprint in the bpu:contentFingerprint aspect. This is bookkeeping, so runs as system
+     * and does not update cm:modified. Locked files are skipped, fingerprint will be computed next time.
+     * A null hash marks the file as not having a fingerprint, it will be computed when asked for.
+     *
+     * @param fileNodeRef the file node reference
+     * @param hash        the hex hash, or null if no fingerprint could be computed
+     * @param contentUrl  the content URL that the hash was computed for
+     * @return true if the fingerprint was saved, false if the file is locked
+     */
+    private boolean saveFingerprint(final NodeRef fileNodeRef, final String hash, final String contentUrl) {
+        return AuthenticationUtil.runAsSystem(() -> {
+            LockStatus lockStatus = serviceRegistry.getLockService().getLockStatus(fileNodeRef);
+            if (lockStatus != LockStatus.NO_LOCK && lockStatus != LockStatus.LOCK_EXPIRED) {
+                LOG.debug("File [{}] is locked, not storing fingerprint", fileNodeRef);
+                return false;
+            }
+
+            Map<QName, Serializable> fingerprintProps = new HashMap<>();
+            fingerprintProps.put(ContentFingerprintAspect.Prop.CONTENT_HASH, hash);
+            fingerprintProps.put(ContentFingerprintAspect.Prop.CONTENT_HASH_ALGORITHM, SHA256_HASH_TYPE);
+            fingerprintProps.put(ContentFingerprintAspect.Prop.CONTENT_HASH_URL, contentUrl);
+
+            behaviourFilter.disableBehaviour(fileNodeRef, ContentModel.ASPECT_AUDITABLE);
+            try {
+                serviceRegistry.getNodeService().addAspect(
+                        fileNodeRef, ContentFingerprintAspect.QNAME, fingerprintProps);
+            } finally {
+                behaviourFilter.enableBehaviour(fileNodeRef, ContentModel.ASPECT_AUDITABLE);
+            }
+
+            LOG.debug("Stored fingerprint [{}] for [{}]", hash, fileNodeRef);
+            return true;
+        });
+    }
+
+    /**
+     * Compute a Hash code for passed in content
+     *
+     * @param contentStream the alfresco repository file content stream to compute the hash for
+     * @return hash code
+     */
+    private String computeHash(InputStream contentStream) {
+        MessageDigest messageDigest = createDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int bytesRead = -1;
+
+        try {
+            while ((bytesRead = contentStream.read(buffer)) > -1) {
+                messageDigest.update(buffer, 0, bytesRead);
+            }
+        } catch (IOException e) {
+            LOG.error("Unable to read content stream.", e);
+            return null;
+        } finally {
+            IOUtils.closeQuietly(contentStream);
+        }
+
+        return convertByteArrayToHex(messageDigest.digest());
+    }
+
+    /**
+     * Convert byte array to hash code
+     *
+     * @param array array of bytes
+     * @return hash code
+     */
+    private String convertByteArrayToHex(byte[] array) {
+        StringBuilder hashValue = new StringBuilder(array.length * 2);
+
+        for (byte element : array) {
+            String hex = Integer.toHexString(0xFF & element);
+            if (hex.length() == 1) {
+                hashValue.append('0');
+            }
+            hashValue.append(hex);
+        }
+
+        return hashValue.toString().toUpperCase();
+    }
+}
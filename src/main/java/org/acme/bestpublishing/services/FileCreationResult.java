@@ -0,0 +1,78 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.services;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+
+/**
+ * Result of creating one file with
+ * {@link AlfrescoRepoUtilsService#createFiles(NodeRef, java.util.stream.Stream)}.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+public class FileCreationResult {
+
+    /**
+     * Possible outcomes when creating a file
+     */
+    public static enum Status {
+        CREATED,
+        ALREADY_EXISTS,
+        FAILED
+    }
+
+    private final String filename;
+    private final Status status;
+    private final NodeRef nodeRef;
+    private final String errorMessage;
+
+    public FileCreationResult(String filename, Status status, NodeRef nodeRef, String errorMessage) {
+        this.filename = filename;
+        this.status = status;
+        this.nodeRef = nodeRef;
+        this.errorMessage = errorMessage;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the new file node, or the existing one if status is ALREADY_EXISTS, or null if FAILED
+     */
+    public NodeRef getNodeRef() {
+        return nodeRef;
+    }
+
+    /**
+     * @return why the file could not be created, or null if not FAILED
+     */
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    @Override
+    public String toString() {
+        return "FileCreationResult[filename=" + filename + "][status=" + status + "][nodeRef=" + nodeRef +
+                "][error=" + errorMessage + "]";
+    }
+}
@@ -0,0 +1,79 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.services;
+
+import java.io.*;
+
+/**
+ * Specification of a file to be created with
+ * {@link AlfrescoRepoUtilsService#createFiles(org.alfresco.service.cmr.repository.NodeRef, java.util.stream.Stream)}.
+ * The content is opened when it is written, which can be on another thread.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+public class FileSpec {
+
+    /**
+     * Opens the file content for reading
+     */
+    public interface ContentSource {
+        InputStream openStream() throws IOException;
+    }
+
+    private final String filename;
+    private final String mimetype;
+    private final ContentSource contentSource;
+
+    /**
+     * @param filename      the name of the new file
+     * @param mimetype      the mimetype of the file, or null to have it detected
+     * @param contentSource opens the content for the file
+     */
+    public FileSpec(String filename, String mimetype, ContentSource contentSource) {
+        this.filename = filename;
+        this.mimetype = mimetype;
+        this.contentSource = contentSource;
+    }
+
+    /**
+     * File spec for a local file, name and content are taken from the file and mimetype is detected.
+     *
+     * @param file the local file
+     * @return a file spec for the local file
+     */
+    public static FileSpec forFile(final File file) {
+        return new FileSpec(file.getName(), null, () -> new FileInputStream(file));
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public String getMimetype() {
+        return mimetype;
+    }
+
+    public ContentSource getContentSource() {
+        return contentSource;
+    }
+
+    @Override
+    public String toString() {
+        return "FileSpec[filename=" + filename + "][mimetype=" + mimetype + "]";
+    }
+}
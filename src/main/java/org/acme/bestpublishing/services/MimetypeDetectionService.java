@@ -0,0 +1,52 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Shared, thread-safe, mimetype detection for files that are added to the repository.
+ * <p>
+ * Known file extensions are resolved from a lookup table without touching the content,
+ * only files with unknown or ambiguous extensions have their content sniffed.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+public interface MimetypeDetectionService {
+
+    /**
+     * Get the mimetype for a file based on its extension only.
+     *
+     * @param filename the filename, such as 9780486282145-Chapter-001.xhtml
+     * @return the mimetype, such as application/xhtml+xml, or null if the extension is unknown or ambiguous
+     */
+    String getMimetypeForExtension(String filename);
+
+    /**
+     * Detect the mimetype for a file. The extension is tried first, if it is unknown or ambiguous
+     * then a bounded number of bytes is peeked from the content stream and sniffed for magic numbers.
+     * The stream is reset to where it was before the call, so it can be used for writing content afterwards.
+     *
+     * @param filename      the filename, such as 9780486282145-Chapter-001.xhtml
+     * @param contentStream the file content, must support mark/reset (e.g. a BufferedInputStream)
+     * @return the mimetype, such as application/xhtml+xml
+     * @throws IOException if the content stream could not be read
+     */
+    String detectMimetype(String filename, InputStream contentStream) throws IOException;
+}
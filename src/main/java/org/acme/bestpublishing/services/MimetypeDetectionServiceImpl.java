@@ -0,0 +1,198 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.services;
+
+import org.alfresco.repo.content.MimetypeMap;
+import org.alfresco.service.ServiceRegistry;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.tika.Tika;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Implementation of the mimetype detection service.
+ * <p>
+ * Extension lookups go to a configurable extension table first, and then to the Alfresco MimetypeService.
+ * Resolved extensions are cached, so after the first file with a certain extension it is just a map lookup.
+ * One Tika instance is shared for content sniffing, it is thread-safe and expensive to create.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+public class MimetypeDetectionServiceImpl implements MimetypeDetectionService {
+    private static final Logger LOG = LoggerFactory.getLogger(MimetypeDetectionServiceImpl.class);
+
+    /**
+     * Marker for extensions that need content sniffing, ConcurrentHashMap does not allow null values
+     */
+    private static final String AMBIGUOUS_EXTENSION = "";
+
+    /**
+     * Max number of extensions to cache, protects against filenames with random extensions
+     */
+    private static final int MAX_CACHED_EXTENSIONS = 1000;
+
+    /**
+     * Alfresco Services
+     */
+    private ServiceRegistry serviceRegistry;
+
+    /**
+     * Extension (lower case) -> mimetype overrides, checked before the MimetypeService
+     */
+    private Map<String, String> extensionMimetypes = new HashMap<>();
+
+    /**
+     * Extensions (lower case) that are always sniffed, such as .bin
+     */
+    private Set<String> sniffExtensions = new HashSet<>();
+
+    /**
+     * Max number of bytes to read from the content stream when sniffing
+     */
+    private int peekSize = 8192;
+
+    /**
+     * Extension -> resolved mimetype, or AMBIGUOUS_EXTENSION
+     */
+    private final Map<String, String> extensionCache = new ConcurrentHashMap<>();
+
+    /**
+     * Shared content detector
+     */
+    private final Tika tika = new Tika();
+
+    /**
+     * Spring Dependency Injection
+     */
+    public void setServiceRegistry(ServiceRegistry serviceRegistry) {
+        this.serviceRegistry = serviceRegistry;
+    }
+
+    /**
+     * @param extensionMimetypes comma separated list of extension=mimetype, such as "xhtml=application/xhtml+xml,css=text/css"
+     */
+    public void setExtensionMimetypes(String extensionMimetypes) {
+        Map<String, String> mimetypes = new HashMap<>();
+        for (String extensionMimetype : StringUtils.split(StringUtils.defaultString(extensionMimetypes), ',')) {
+            String[] pair = StringUtils.split(extensionMimetype, '=');
+            if (pair.length != 2) {
+                LOG.warn("Ignoring extension mimetype mapping [{}], expected extension=mimetype", extensionMimetype);
+                continue;
+            }
+            mimetypes.put(pair[0].trim().toLowerCase(), pair[1].trim());
+        }
+        this.extensionMimetypes = mimetypes;
+    }
+
+    /**
+     * @param sniffExtensions comma separated list of extensions that should always be sniffed, such as "bin,dat"
+     */
+    public void setSniffExtensions(String sniffExtensions) {
+        Set<String> extensions = new HashSet<>();
+        for (String extension : StringUtils.split(StringUtils.defaultString(sniffExtensions), ',')) {
+            extensions.add(extension.trim().toLowerCase());
+        }
+        this.sniffExtensions = extensions;
+    }
+
+    public void setPeekSize(int peekSize) {
+        this.peekSize = peekSize;
+    }
+
+    /**
+     * Interface Implementation
+     */
+
+    @Override
+    public String getMimetypeForExtension(String filename) {
+        String extension = FilenameUtils.getExtension(filename).toLowerCase();
+        if (extension.isEmpty()) {
+            return null;
+        }
+
+        String mimetype = extensionCache.get(extension);
+        if (mimetype == null) {
+            mimetype = resolveExtension(extension);
+            if (extensionCache.size() < MAX_CACHED_EXTENSIONS) {
+                extensionCache.put(extension, mimetype);
+            }
+        }
+
+        return AMBIGUOUS_EXTENSION.equals(mimetype) ? null : mimetype;
+    }
+
+    @Override
+    public String detectMimetype(String filename, InputStream contentStream) throws IOException {
+        String mimetype = getMimetypeForExtension(filename);
+        if (mimetype != null) {
+            LOG.debug("Mime type for [{}] is [{}] (extension)", filename, mimetype);
+            return mimetype;
+        }
+
+        if (!contentStream.markSupported()) {
+            throw new IllegalArgumentException("Content stream for [" + filename + "] must support mark/reset");
+        }
+
+        // Peek at the beginning of the content, and then rewind so the stream can be written
+        byte[] prefix = new byte[peekSize];
+        int prefixLength = 0;
+        contentStream.mark(peekSize);
+        try {
+            int bytesRead;
+            while (prefixLength < peekSize &&
+                    (bytesRead = contentStream.read(prefix, prefixLength, peekSize - prefixLength)) > -1) {
+                prefixLength += bytesRead;
+            }
+        } finally {
+            contentStream.reset();
+        }
+
+        mimetype = tika.detect(Arrays.copyOf(prefix, prefixLength), filename);
+        LOG.debug("Mime type for [{}] is [{}] (sniffed)", filename, mimetype);
+
+        return mimetype;
+    }
+
+    /**
+     * Resolve mimetype for passed in extension from the extension table or the Alfresco MimetypeService.
+     *
+     * @param extension lower case file extension, such as xhtml
+     * @return the mimetype, or AMBIGUOUS_EXTENSION if content needs to be sniffed
+     */
+    private String resolveExtension(String extension) {
+        if (sniffExtensions.contains(extension)) {
+            return AMBIGUOUS_EXTENSION;
+        }
+
+        String mimetype = extensionMimetypes.get(extension);
+        if (mimetype == null) {
+            mimetype = serviceRegistry.getMimetypeService().getMimetypesByExtension().get(extension);
+        }
+        if (mimetype == null || MimetypeMap.MIMETYPE_BINARY.equals(mimetype)) {
+            return AMBIGUOUS_EXTENSION;
+        }
+
+        return mimetype;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.services;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.search.ResultSet;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.search.SearchService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazy iterator over the node references matching a Lucene query.
+ * <p>
+ * Results are fetched one page at a time with skip count and max items, and each page's result set
+ * is closed as soon as its node references have been read, so only one page is ever held in memory.
+ * Results are sorted on node DB id so paging is stable.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+class PagedSearchIterator implements Iterator<NodeRef> {
+    private static final Logger LOG = LoggerFactory.getLogger(PagedSearchIterator.class);
+
+    private final SearchService searchService;
+    private final String query;
+    private final int pageSize;
+
+    /**
+     * Current page and where we are in it
+     */
+    private List<NodeRef> page = Collections.emptyList();
+    private int pageIndex;
+
+    /**
+     * Number of results fetched so far, skip count for next page
+     */
+    private int skipCount;
+    private boolean lastPage;
+
+    PagedSearchIterator(SearchService searchService, String query, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1");
+        }
+        this.searchService = searchService;
+        this.query = query;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (pageIndex < page.size()) {
+            return true;
+        }
+        if (lastPage) {
+            return false;
+        }
+
+        fetchNextPage();
+
+        return pageIndex < page.size();
+    }
+
+    @Override
+    public NodeRef next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        return page.get(pageIndex++);
+    }
+
+    /**
+     * Fetch next page of results and close the result set.
+     */
+    private void fetchNextPage() {
+        SearchParameters sp = new SearchParameters();
+        sp.addStore(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
+        sp.setLanguage(SearchService.LANGUAGE_LUCENE);
+        sp.setQuery(query);
+        sp.setSkipCount(skipCount);
+        sp.setMaxItems(pageSize);
+        sp.addSort("@" + ContentModel.PROP_NODE_DBID, true);
+
+        ResultSet results = null;
+        try {
+            results = searchService.query(sp);
+            page = results.getNodeRefs();
+            lastPage = page.size() < pageSize || !results.hasMore();
+        } finally {
+            if (results != null) {
+                // Close underlying resources used by the search engine
+                results.close();
+            }
+        }
+
+        LOG.debug("Fetched page of [{}] nodes at [skip={}] for query [{}]", new Object[]{page.size(), skipCount, query});
+
+        pageIndex = 0;
+        skipCount += page.size();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.services;
+
+import org.alfresco.service.cmr.workflow.WorkflowInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+
+/**
+ * Lazy iterator over the workflow instances returned by a paged workflow query.
+ * <p>
+ * Workflow instances are fetched one page at a time with skip count and max items,
+ * so only one page is ever held in memory. The page loader must return workflow instances in a stable order.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+class PagedWorkflowInstanceIterator implements Iterator<WorkflowInstance> {
+    private static final Logger LOG = LoggerFactory.getLogger(PagedWorkflowInstanceIterator.class);
+
+    /**
+     * Loads a page of workflow instances given skip count and max items
+     */
+    private final BiFunction<Integer, Integer, List<WorkflowInstance>> pageLoader;
+    private final int pageSize;
+
+    /**
+     * Current page and where we are in it
+     */
+    private List<WorkflowInstance> page = Collections.emptyList();
+    private int pageIndex;
+
+    /**
+     * Number of workflow instances fetched so far, skip count for next page
+     */
+    private int skipCount;
+    private boolean lastPage;
+
+    PagedWorkflowInstanceIterator(BiFunction<Integer, Integer, List<WorkflowInstance>> pageLoader, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1");
+        }
+        this.pageLoader = pageLoader;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (pageIndex < page.size()) {
+            return true;
+        }
+        if (lastPage) {
+            return false;
+        }
+
+        fetchNextPage();
+
+        return pageIndex < page.size();
+    }
+
+    @Override
+    public WorkflowInstance next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        return page.get(pageIndex++);
+    }
+
+    /**
+     * Fetch next page of workflow instances.
+     */
+    private void fetchNextPage() {
+        page = pageLoader.apply(skipCount, pageSize);
+        lastPage = page.size() < pageSize;
+
+        LOG.debug("Fetched page of [{}] workflow instances at [skip={}]", page.size(), skipCount);
+
+        skipCount += page.size();
+        pageIndex = 0;
+    }
+}
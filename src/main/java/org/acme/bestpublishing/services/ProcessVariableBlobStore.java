@@ -0,0 +1,335 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.services;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.model.FileExistsException;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.service.cmr.repository.DuplicateChildNodeNameException;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.acme.bestpublishing.constants.BestPubConstants.BESTPUB_FOLDER_NAME;
+import static org.acme.bestpublishing.constants.BestPubConstants.WORKFLOW_VARIABLES_FOLDER_NAME;
+
+/**
+ * Store for large structured workflow process variables, such as all metadata and the chapter list.
+ * <p>
+ * Instead of having Activiti serialize the value into its byte array table, and into history, every time
+ * process variables are saved, the value is stored once as a compressed blob in a content node in
+ * /Company Home/Data Dictionary/BestPub/Workflow Variables, and the process only holds a short reference string.
+ * Blobs are named on a SHA-256 hash of their bytes, so the same value is only stored once, and are never
+ * changed after they have been written. Each blob starts with a format version so the format can evolve.
+ * Blob nodes are not indexed.
+ * <p>
+ * Blob lifecycle: the workflow instances referencing a blob are tracked explicitly, with one attribute service
+ * attribute per blob and workflow instance. A reference is added when a workflow is started with the blob
+ * reference as a property, or a process variable is set to it, through {@link AlfrescoWorkflowUtilsService}.
+ * It is removed when the process variable is set to another value, and when the completed workflow instance is
+ * archived and deleted from history. The blob node is deleted when its last reference is removed.
+ * A blob that never gets a reference, such as one stored for a workflow started directly with the workflow service,
+ * is never deleted.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+public class ProcessVariableBlobStore {
+    private static final Logger LOG = LoggerFactory.getLogger(ProcessVariableBlobStore.class);
+
+    /**
+     * Prefix for the process variable value referencing a blob, followed by the blob node reference
+     */
+    public static final String REFERENCE_PREFIX = "bestpubBlob:";
+
+    /**
+     * Attribute service key for blob references, the blob node id is the second key
+     * and the referencing workflow instance id the third key
+     */
+    private static final String ATTR_KEY_BLOB_REFERENCES = "org.acme.bestpublishing.processVariableBlobReferences";
+
+    /**
+     * Blob header, magic bytes and format version, version 1 is a GZIP compressed serialized Java object
+     */
+    private static final byte[] BLOB_MAGIC = {'B', 'P', 'V'};
+    private static final byte BLOB_FORMAT_VERSION = 1;
+
+    private static final String BLOB_MIMETYPE = "application/octet-stream";
+    private static final String HASH_TYPE = "SHA-256";
+
+    /**
+     * Alfresco Services
+     */
+    private ServiceRegistry serviceRegistry;
+
+    /**
+     * Best Pub Specific services
+     */
+    private AlfrescoRepoUtilsService alfrescoRepoUtilsService;
+
+    /**
+     * Spring Dependency Injection
+     */
+    public void setServiceRegistry(ServiceRegistry serviceRegistry) {
+        this.serviceRegistry = serviceRegistry;
+    }
+
+    public void setAlfrescoRepoUtilsService(AlfrescoRepoUtilsService alfrescoRepoUtilsService) {
+        this.alfrescoRepoUtilsService = alfrescoRepoUtilsService;
+    }
+
+    /**
+     * Store a process variable value as a blob, unless the same value is already stored.
+     * Must be called in a read-write transaction.
+     *
+     * @param value the process variable value
+     * @return the reference to store in the process variable instead of the value
+     */
+    public String store(Serializable value) {
+        final byte[] blob = serialize(value);
+        final String blobName = hash(blob) + ".bin";
+        NodeRef blobNodeRef = AuthenticationUtil.runAsSystem(() -> {
+            // Spread blobs over sub-folders on the first two characters of the hash
+            NodeRef blobFolderNodeRef = getOrCreateBlobFolder(blobName.substring(0, 2));
+            NodeRef existingBlobNodeRef = alfrescoRepoUtilsService.getChildByName(blobFolderNodeRef, blobName);
+            if (existingBlobNodeRef == null) {
+                try {
+                    return createBlobNode(blobFolderNodeRef, blobName, blob);
+                } catch (DuplicateChildNodeNameException dcnne) {
+                    // Same value stored by a concurrent transaction
+                    existingBlobNodeRef = alfrescoRepoUtilsService.getChildByName(blobFolderNodeRef, blobName);
+                    if (existingBlobNodeRef == null) {
+                        throw dcnne;
+                    }
+                }
+            }
+
+            return existingBlobNodeRef;
+        });
+
+        LOG.debug("Stored process variable value of type {} as [{}] byte blob [{}]",
+                new Object[]{value.getClass().getName(), blob.length, blobNodeRef});
+
+        return REFERENCE_PREFIX + blobNodeRef;
+    }
+
+    /**
+     * @param value a process variable value
+     * @return true if the value is a reference to a blob
+     */
+    public boolean isReference(Object value) {
+        return value instanceof String && ((String) value).startsWith(REFERENCE_PREFIX);
+    }
+
+    /**
+     * Add a workflow instance reference to a blob, so it is not deleted while the workflow instance uses it.
+     * Adding the same reference again does nothing. Must be called in a read-write transaction.
+     *
+     * @param reference          a reference returned by {@link #store(Serializable)}
+     * @param workflowInstanceId the workflow instance with a process variable holding the reference
+     *                           (e.g. activiti$23456)
+     */
+    public void addReference(String reference, String workflowInstanceId) {
+        final NodeRef blobNodeRef = getBlobNodeRef(reference);
+        AuthenticationUtil.runAsSystem(() -> {
+            if (!serviceRegistry.getNodeService().exists(blobNodeRef)) {
+                throw new AlfrescoRuntimeException("Process variable blob [" + blobNodeRef +
+                        "] has been deleted, store the value again");
+            }
+
+            // Touch the blob, so a concurrent release deleting it fails on the node version and is retried
+            serviceRegistry.getNodeService().setProperty(blobNodeRef, ContentModel.PROP_MODIFIED, new Date());
+            return null;
+        });
+        serviceRegistry.getAttributeService().setAttribute(Boolean.TRUE,
+                ATTR_KEY_BLOB_REFERENCES, blobNodeRef.getId(), workflowInstanceId);
+    }
+
+    /**
+     * Remove a workflow instance reference to a blob, the blob node is deleted if no other workflow instance
+     * references it. Must be called in a read-write transaction.
+     *
+     * @param reference          a reference returned by {@link #store(Serializable)}
+     * @param workflowInstanceId the workflow instance that no longer uses the blob (e.g. activiti$23456)
+     * @return true if the blob node was deleted
+     */
+    public boolean release(String reference, String workflowInstanceId) {
+        final NodeRef blobNodeRef = getBlobNodeRef(reference);
+        serviceRegistry.getAttributeService().removeAttribute(
+                ATTR_KEY_BLOB_REFERENCES, blobNodeRef.getId(), workflowInstanceId);
+
+        final boolean[] referenced = {false};
+        serviceRegistry.getAttributeService().getAttributes((id, value, keys) -> {
+            referenced[0] = true;
+            return false;
+        }, ATTR_KEY_BLOB_REFERENCES, blobNodeRef.getId());
+        if (referenced[0]) {
+            return false;
+        }
+
+        return AuthenticationUtil.runAsSystem(() -> {
+            if (!serviceRegistry.getNodeService().exists(blobNodeRef)) {
+                return false;
+            }
+
+            // Delete it permanently, not to the trashcan
+            serviceRegistry.getNodeService().addAspect(blobNodeRef, ContentModel.ASPECT_TEMPORARY, null);
+            serviceRegistry.getNodeService().deleteNode(blobNodeRef);
+            LOG.debug("Deleted unreferenced process variable blob [{}]", blobNodeRef);
+            return true;
+        });
+    }
+
+    /**
+     * Read and deserialize the process variable value that a reference points to.
+     *
+     * @param reference a reference returned by {@link #store(Serializable)}
+     * @return the process variable value
+     */
+    public Object load(String reference) {
+        final NodeRef blobNodeRef = getBlobNodeRef(reference);
+        ContentReader reader = AuthenticationUtil.runAsSystem(() ->
+                serviceRegistry.getContentService().getReader(blobNodeRef, ContentModel.PROP_CONTENT));
+        if (reader == null || !reader.exists()) {
+            throw new AlfrescoRuntimeException("Process variable blob [" + blobNodeRef + "] does not exist");
+        }
+
+        try (InputStream blobStream = new BufferedInputStream(reader.getContentInputStream())) {
+            for (byte magicByte : BLOB_MAGIC) {
+                if (blobStream.read() != magicByte) {
+                    throw new AlfrescoRuntimeException("[" + blobNodeRef + "] is not a process variable blob");
+                }
+            }
+            int formatVersion = blobStream.read();
+            if (formatVersion != BLOB_FORMAT_VERSION) {
+                throw new AlfrescoRuntimeException("Process variable blob [" + blobNodeRef +
+                        "] has unsupported format version " + formatVersion);
+            }
+            try (ObjectInputStream objectStream = new ObjectInputStream(new GZIPInputStream(blobStream))) {
+                return objectStream.readObject();
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new AlfrescoRuntimeException("Could not read process variable blob [" + blobNodeRef + "]", e);
+        }
+    }
+
+    /**
+     * Serialize and compress a process variable value, with the blob header.
+     *
+     * @param value the process variable value
+     * @return the blob bytes
+     */
+    private byte[] serialize(Serializable value) {
+        ByteArrayOutputStream blobStream = new ByteArrayOutputStream();
+        blobStream.write(BLOB_MAGIC, 0, BLOB_MAGIC.length);
+        blobStream.write(BLOB_FORMAT_VERSION);
+        try (ObjectOutputStream objectStream = new ObjectOutputStream(new GZIPOutputStream(blobStream))) {
+            objectStream.writeObject(value);
+        } catch (IOException ioe) {
+            throw new AlfrescoRuntimeException("Could not serialize process variable value of type " +
+                    value.getClass().getName(), ioe);
+        }
+
+        return blobStream.toByteArray();
+    }
+
+    private NodeRef getBlobNodeRef(String reference) {
+        return new NodeRef(reference.substring(REFERENCE_PREFIX.length()));
+    }
+
+    private String hash(byte[] blob) {
+        try {
+            return Hex.encodeHexString(MessageDigest.getInstance(HASH_TYPE).digest(blob));
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new AlfrescoRuntimeException("Hash type " + HASH_TYPE + " is not supported", nsae);
+        }
+    }
+
+    /**
+     * Get or create the /Company Home/Data Dictionary/BestPub/Workflow Variables folder.
+     *
+     * @return the base folder for process variable blobs
+     */
+    private NodeRef getBlobBaseFolder() {
+        NodeRef bestPubFolderNodeRef = alfrescoRepoUtilsService.getOrCreateFolder(
+                alfrescoRepoUtilsService.getDataDictionary(), BESTPUB_FOLDER_NAME);
+        return alfrescoRepoUtilsService.getOrCreateFolder(bestPubFolderNodeRef, WORKFLOW_VARIABLES_FOLDER_NAME);
+    }
+
+    /**
+     * Get or create a blob sub-folder, it might be created by a concurrent transaction storing another blob.
+     *
+     * @param blobFolderName the sub-folder name, such as 3f
+     * @return the blob sub-folder
+     */
+    private NodeRef getOrCreateBlobFolder(String blobFolderName) {
+        NodeRef blobBaseFolderNodeRef = getBlobBaseFolder();
+        try {
+            return alfrescoRepoUtilsService.getOrCreateFolder(blobBaseFolderNodeRef, blobFolderName);
+        } catch (FileExistsException | DuplicateChildNodeNameException e) {
+            NodeRef blobFolderNodeRef = alfrescoRepoUtilsService.getChildByName(blobBaseFolderNodeRef, blobFolderName);
+            if (blobFolderNodeRef == null) {
+                throw e;
+            }
+
+            return blobFolderNodeRef;
+        }
+    }
+
+    /**
+     * Create a blob content node that is not indexed.
+     *
+     * @param blobFolderNodeRef the folder to create the blob node in
+     * @param blobName          the blob node name
+     * @param blob              the blob bytes
+     * @return the new blob node
+     */
+    private NodeRef createBlobNode(NodeRef blobFolderNodeRef, String blobName, byte[] blob) {
+        Map<QName, Serializable> properties = new HashMap<>();
+        properties.put(ContentModel.PROP_NAME, blobName);
+        properties.put(ContentModel.PROP_IS_INDEXED, Boolean.FALSE);
+        properties.put(ContentModel.PROP_IS_CONTENT_INDEXED, Boolean.FALSE);
+        NodeRef blobNodeRef = serviceRegistry.getNodeService().createNode(blobFolderNodeRef,
+                ContentModel.ASSOC_CONTAINS,
+                QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, blobName),
+                ContentModel.TYPE_CONTENT, properties).getChildRef();
+        serviceRegistry.getNodeService().addAspect(blobNodeRef, ContentModel.ASPECT_INDEX_CONTROL, null);
+
+        ContentWriter writer = serviceRegistry.getContentService().getWriter(
+                blobNodeRef, ContentModel.PROP_CONTENT, true);
+        writer.setMimetype(BLOB_MIMETYPE);
+        writer.putContent(new ByteArrayInputStream(blob));
+
+        return blobNodeRef;
+    }
+}
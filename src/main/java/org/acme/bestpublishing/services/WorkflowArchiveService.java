@@ -0,0 +1,51 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.services;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Archives completed workflow instances into a compact per-ISBN archive, and deletes them from the
+ * Activiti history tables, so history based lookups do not get slower as completed processes pile up.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+public interface WorkflowArchiveService {
+
+    /**
+     * Archive and delete a batch of the oldest completed workflow instances, in the current transaction.
+     * For each instance a summary with the archived process variables is added to the archive for its ISBN,
+     * and the instance is then deleted from the workflow history. Large process variable blobs that the
+     * deleted instances referenced are released.
+     *
+     * @param workflowDefinitionName the workflow definition name such as 'activiti$bestpub-publishing-process'
+     * @param completedBefore        only archive workflow instances that completed before this date
+     * @param maxItems               max number of workflow instances to archive
+     * @return the number of workflow instances archived, less than maxItems when there are no more to archive
+     */
+    int archiveCompletedWorkflows(String workflowDefinitionName, Date completedBefore, int maxItems);
+
+    /**
+     * Get the archived workflow instances for an ISBN.
+     *
+     * @param isbn the ISBN that the workflow instances were started for, such as 9780486282145
+     * @return the archived workflow instances, oldest first, or an empty list if none has been archived
+     */
+    List<ArchivedWorkflow> getArchivedWorkflows(String isbn);
+}
@@ -0,0 +1,210 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.services;
+
+import org.acme.bestpublishing.model.BestPubWorkflowModel;
+import org.activiti.engine.HistoryService;
+import org.activiti.engine.history.HistoricProcessInstance;
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.workflow.BPMEngineRegistry;
+import org.alfresco.repo.workflow.activiti.ActivitiConstants;
+import org.alfresco.service.ServiceRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Workflow archive implementation.
+ * <p>
+ * The archive is stored with the Alfresco attribute service, so it is shared by all cluster members.
+ * Each archived workflow is one GZIP compressed serialized {@link ArchivedWorkflow} attribute, keyed on ISBN
+ * and workflow instance id, so archiving only writes new attributes and never rewrites what is already archived,
+ * and an ISBN lookup only reads the attributes for that ISBN.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+public class WorkflowArchiveServiceImpl implements WorkflowArchiveService {
+    private static final Logger LOG = LoggerFactory.getLogger(WorkflowArchiveServiceImpl.class);
+
+    /**
+     * Attribute service key for the archive, ISBN is the second key and workflow instance id the third key
+     */
+    private static final String ATTR_KEY_ARCHIVE = "org.acme.bestpublishing.workflowArchive";
+
+    /**
+     * Archive key for workflow instances without an ISBN
+     */
+    private static final String NO_ISBN = "NO_ISBN";
+
+    /**
+     * Alfresco Services
+     */
+    private ServiceRegistry serviceRegistry;
+
+    /**
+     * Activiti services
+     */
+    private HistoryService activitiHistoryService;
+
+    /**
+     * Best Pub Specific services
+     */
+    private ProcessVariableBlobStore processVariableBlobStore;
+
+    /**
+     * Process variables to keep in the archive
+     */
+    private Set<String> variableNames;
+
+    /**
+     * Spring Dependency Injection
+     */
+    public void setServiceRegistry(ServiceRegistry serviceRegistry) {
+        this.serviceRegistry = serviceRegistry;
+    }
+
+    public void setActivitiHistoryService(HistoryService activitiHistoryService) {
+        this.activitiHistoryService = activitiHistoryService;
+    }
+
+    public void setProcessVariableBlobStore(ProcessVariableBlobStore processVariableBlobStore) {
+        this.processVariableBlobStore = processVariableBlobStore;
+    }
+
+    /**
+     * @param variableNames comma separated list of process variable names, such as 'bookpub_ISBN,bookpub_bookTitle'
+     */
+    public void setVariableNames(String variableNames) {
+        this.variableNames = new LinkedHashSet<>(Arrays.asList(variableNames.trim().split("\\s*,\\s*")));
+    }
+
+    @Override
+    public int archiveCompletedWorkflows(String workflowDefinitionName, Date completedBefore, int maxItems) {
+        List<HistoricProcessInstance> processInstances = activitiHistoryService.createHistoricProcessInstanceQuery().
+                processDefinitionKey(BPMEngineRegistry.getLocalId(workflowDefinitionName)).
+                finished().
+                finishedBefore(completedBefore).
+                includeProcessVariables().
+                orderByProcessInstanceEndTime().asc().
+                listPage(0, maxItems);
+        if (processInstances.isEmpty()) {
+            return 0;
+        }
+
+        // One attribute per archived workflow
+        Set<String> isbns = new HashSet<>();
+        for (HistoricProcessInstance processInstance : processInstances) {
+            ArchivedWorkflow archivedWorkflow = toArchivedWorkflow(processInstance);
+            String isbn = archivedWorkflow.getIsbn() == null ? NO_ISBN : archivedWorkflow.getIsbn();
+            serviceRegistry.getAttributeService().setAttribute(compress(archivedWorkflow),
+                    ATTR_KEY_ARCHIVE, isbn, archivedWorkflow.getWorkflowInstanceId());
+            isbns.add(isbn);
+        }
+
+        // Now delete them from history, in the same transaction as the archive is written,
+        // and release the large process variable blobs they referenced
+        for (HistoricProcessInstance processInstance : processInstances) {
+            String workflowInstanceId = BPMEngineRegistry.createGlobalId(
+                    ActivitiConstants.ENGINE_ID, processInstance.getId());
+            serviceRegistry.getWorkflowService().deleteWorkflow(workflowInstanceId);
+            if (processInstance.getProcessVariables() != null) {
+                for (Object value : processInstance.getProcessVariables().values()) {
+                    if (processVariableBlobStore.isReference(value)) {
+                        processVariableBlobStore.release((String) value, workflowInstanceId);
+                    }
+                }
+            }
+        }
+
+        LOG.debug("Archived [{}] completed workflows for [{}] ISBNs [workflowDefinitionName={}]",
+                new Object[]{processInstances.size(), isbns.size(), workflowDefinitionName});
+
+        return processInstances.size();
+    }
+
+    @Override
+    public List<ArchivedWorkflow> getArchivedWorkflows(String isbn) {
+        final List<ArchivedWorkflow> archivedWorkflows = new ArrayList<>();
+        serviceRegistry.getAttributeService().getAttributes((id, value, keys) -> {
+            archivedWorkflows.add(decompress((byte[]) value));
+            return true;
+        }, ATTR_KEY_ARCHIVE, isbn);
+
+        // Oldest first
+        Collections.sort(archivedWorkflows, (aw1, aw2) -> compareDates(aw1.getEndTime(), aw2.getEndTime()));
+
+        return archivedWorkflows;
+    }
+
+    private static int compareDates(Date date1, Date date2) {
+        if (date1 == null || date2 == null) {
+            return date1 == null ? (date2 == null ? 0 : -1) : 1;
+        }
+
+        return date1.compareTo(date2);
+    }
+
+    /**
+     * Create an archive summary for a completed process instance with the process variables to keep.
+     *
+     * @param processInstance the completed process instance, with process variables
+     * @return the archive summary
+     */
+    private ArchivedWorkflow toArchivedWorkflow(HistoricProcessInstance processInstance) {
+        Map<String, Object> processVariables = processInstance.getProcessVariables();
+        Map<String, Serializable> variables = new HashMap<>(variableNames.size() * 2);
+        for (String variableName : variableNames) {
+            Object value = processVariables == null ? null : processVariables.get(variableName);
+            if (value instanceof Serializable) {
+                variables.put(variableName, (Serializable) value);
+            }
+        }
+        Object isbn = processVariables == null ? null : processVariables.get(BestPubWorkflowModel.VAR_ISBN);
+
+        return new ArchivedWorkflow(
+                BPMEngineRegistry.createGlobalId(ActivitiConstants.ENGINE_ID, processInstance.getId()),
+                processInstance.getProcessDefinitionId(), isbn == null ? null : isbn.toString(),
+                processInstance.getStartUserId(), processInstance.getStartTime(), processInstance.getEndTime(),
+                processInstance.getDeleteReason(), variables);
+    }
+
+    private byte[] compress(ArchivedWorkflow archivedWorkflow) {
+        ByteArrayOutputStream archiveStream = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectStream = new ObjectOutputStream(new GZIPOutputStream(archiveStream))) {
+            objectStream.writeObject(archivedWorkflow);
+        } catch (IOException ioe) {
+            throw new AlfrescoRuntimeException("Could not write archived workflow [" +
+                    archivedWorkflow.getWorkflowInstanceId() + "]", ioe);
+        }
+
+        return archiveStream.toByteArray();
+    }
+
+    private ArchivedWorkflow decompress(byte[] archivedWorkflow) {
+        try (ObjectInputStream objectStream =
+                     new ObjectInputStream(new GZIPInputStream(new ByteArrayInputStream(archivedWorkflow)))) {
+            return (ArchivedWorkflow) objectStream.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new AlfrescoRuntimeException("Could not read archived workflow", e);
+        }
+    }
+}
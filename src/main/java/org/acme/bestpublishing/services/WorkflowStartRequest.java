@@ -0,0 +1,66 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.services;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.namespace.QName;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Request to start one workflow instance for a book with
+ * {@link AlfrescoWorkflowUtilsService#startWorkflowInstances(String, List)}.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+public class WorkflowStartRequest {
+    private final String isbn;
+    private final List<NodeRef> packageFileNodeRefs;
+    private final Map<QName, Serializable> properties;
+
+    /**
+     * @param isbn                the ISBN of the book the workflow is started for
+     * @param packageFileNodeRefs the files that should be attached to the bpm_package variable
+     * @param properties          the properties that the workflow instance should be started with
+     */
+    public WorkflowStartRequest(String isbn, List<NodeRef> packageFileNodeRefs, Map<QName, Serializable> properties) {
+        this.isbn = isbn;
+        this.packageFileNodeRefs = packageFileNodeRefs == null ? Collections.<NodeRef>emptyList() : packageFileNodeRefs;
+        this.properties = properties;
+    }
+
+    public String getIsbn() {
+        return isbn;
+    }
+
+    public List<NodeRef> getPackageFileNodeRefs() {
+        return packageFileNodeRefs;
+    }
+
+    public Map<QName, Serializable> getProperties() {
+        return properties;
+    }
+
+    @Override
+    public String toString() {
+        return "WorkflowStartRequest[isbn=" + isbn + "][packageFileSize=" + packageFileNodeRefs.size() + "]";
+    }
+}
@@ -0,0 +1,79 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.services;
+
+/**
+ * Result of starting one workflow instance with
+ * {@link AlfrescoWorkflowUtilsService#startWorkflowInstances(String, java.util.List)}.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+public class WorkflowStartResult {
+
+    /**
+     * Possible outcomes when starting a workflow
+     */
+    public static enum Status {
+        STARTED,
+        FAILED,
+        /**
+         * The workflow might have been started, check for a workflow instance for the ISBN before starting it again
+         */
+        UNKNOWN
+    }
+
+    private final String isbn;
+    private final Status status;
+    private final String workflowInstanceId;
+    private final String errorMessage;
+
+    public WorkflowStartResult(String isbn, Status status, String workflowInstanceId, String errorMessage) {
+        this.isbn = isbn;
+        this.status = status;
+        this.workflowInstanceId = workflowInstanceId;
+        this.errorMessage = errorMessage;
+    }
+
+    public String getIsbn() {
+        return isbn;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the workflow instance id (e.g. activiti$23456), or null if FAILED or UNKNOWN
+     */
+    public String getWorkflowInstanceId() {
+        return workflowInstanceId;
+    }
+
+    /**
+     * @return why the workflow could not be started, or null if not FAILED
+     */
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    @Override
+    public String toString() {
+        return "WorkflowStartResult[isbn=" + isbn + "][status=" + status + "][workflowInstanceId=" +
+                workflowInstanceId + "][error=" + errorMessage + "]";
+    }
+}
@@ -0,0 +1,67 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.services;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Number of active workflow instances in one activity with one combination of variable values, returned by
+ * {@link AlfrescoWorkflowUtilsService#getWorkflowStatusCounts(String, java.util.List)}.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+public class WorkflowStatusCount {
+    private final String activityId;
+    private final Map<String, Object> variableValues;
+    private final long count;
+
+    public WorkflowStatusCount(String activityId, Map<String, Object> variableValues, long count) {
+        this.activityId = activityId;
+        this.variableValues = Collections.unmodifiableMap(variableValues);
+        this.count = count;
+    }
+
+    /**
+     * @return the id of the activity in the process definition that the workflow instances are in,
+     * such as a user task or a wait for content
+     */
+    public String getActivityId() {
+        return activityId;
+    }
+
+    /**
+     * @return the grouped variable values, variable name -> value, null if the variable is not set
+     */
+    public Map<String, Object> getVariableValues() {
+        return variableValues;
+    }
+
+    /**
+     * @return the number of workflow instances
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "WorkflowStatusCount[activityId=" + activityId + "][variableValues=" + variableValues +
+                "][count=" + count + "]";
+    }
+}
@@ -0,0 +1,113 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.services;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Projection of a workflow task with only the task fields and process variables that the
+ * publishing task dashboard shows, returned by
+ * {@link AlfrescoWorkflowUtilsService#getAssignedAndPooledTaskSummaries(String, java.util.Set, int, int)}.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+public class WorkflowTaskSummary implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String id;
+    private final String name;
+    private final String description;
+    private final String assignee;
+    private final Date createTime;
+    private final Date dueDate;
+    private final int priority;
+    private final String workflowInstanceId;
+    private final Map<String, Object> processVariables;
+
+    public WorkflowTaskSummary(String id, String name, String description, String assignee, Date createTime,
+                               Date dueDate, int priority, String workflowInstanceId,
+                               Map<String, Object> processVariables) {
+        this.id = id;
+        this.name = name;
+        this.description = description;
+        this.assignee = assignee;
+        this.createTime = createTime;
+        this.dueDate = dueDate;
+        this.priority = priority;
+        this.workflowInstanceId = workflowInstanceId;
+        this.processVariables = processVariables == null ?
+                Collections.<String, Object>emptyMap() : Collections.unmodifiableMap(processVariables);
+    }
+
+    /**
+     * @return the workflow task id, such as activiti$34567
+     */
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * @return the username of the assignee, or null if the task is pooled
+     */
+    public String getAssignee() {
+        return assignee;
+    }
+
+    public Date getCreateTime() {
+        return createTime;
+    }
+
+    public Date getDueDate() {
+        return dueDate;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return the workflow instance id, such as activiti$23456
+     */
+    public String getWorkflowInstanceId() {
+        return workflowInstanceId;
+    }
+
+    /**
+     * @return the requested process variables that are set, such as the ISBN and book title
+     */
+    public Map<String, Object> getProcessVariables() {
+        return processVariables;
+    }
+
+    @Override
+    public String toString() {
+        return "WorkflowTaskSummary[id=" + id + "][name=" + name + "][assignee=" + assignee +
+                "][workflowInstanceId=" + workflowInstanceId + "]";
+    }
+}
@@ -0,0 +1,171 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one or more
+contributor license agreements.  See the NOTICE file distributed with
+this work for additional information regarding copyright ownership.
+The ASF licenses this file to You under the Apache License, Version 2.0
+(the "License"); you may not use this file except in compliance with
+the License.  You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.acme.bestpublishing.utils;
+
+import static org.acme.bestpublishing.constants.BestPubConstants.ISBN_NUMBER_LENGTH;
+
+/**
+ * ISBN-13 validation and extraction without regular expressions or object allocation.
+ * <p>
+ * An ISBN-13 is 13 digits starting with the 978 or 979 prefix, where the last digit is a check digit:
+ * the sum of the digits weighted alternately 1 and 3 must be a multiple of 10.
+ * Valid ISBNs are returned as a long (13 digits always fit), so no strings need to be created
+ * when scanning filenames, use {@link Long#toString(long)} if the ISBN is needed as text.
+ *
+ * @author martin.bergljung@marversolutions.org
+ * @version 1.0
+ */
+public final class IsbnUtils {
+
+    /**
+     * Returned when there is no valid ISBN
+     */
+    public static final long NO_ISBN = -1L;
+
+    /**
+     * Divisor to get the 3 digit prefix (978 or 979) from a 13 digit ISBN
+     */
+    private static final long PREFIX_DIVISOR = 10_000_000_000L;
+
+    private IsbnUtils() {
+    }
+
+    /**
+     * Check if the passed in text is an ISBN-13 number, such as 9780203093474.
+     *
+     * @param text the text to check, can be null
+     * @return true if the whole text is a valid ISBN-13 number
+     */
+    public static boolean isIsbn13(CharSequence text) {
+        return text != null && parseIsbn13(text, 0, text.length()) != NO_ISBN;
+    }
+
+    /**
+     * Parse an ISBN-13 number from a range of characters.
+     *
+     * @param text  the text containing the ISBN
+     * @param start start index, inclusive
+     * @param end   end index, exclusive
+     * @return the ISBN, or {@link #NO_ISBN} if the range is not exactly one valid ISBN-13 number
+     */
+    public static long parseIsbn13(CharSequence text, int start, int end) {
+        if (end - start != ISBN_NUMBER_LENGTH) {
+            return NO_ISBN;
+        }
+
+        long isbn = 0;
+        int checksum = 0;
+        for (int i = 0; i < ISBN_NUMBER_LENGTH; i++) {
+            int digit = text.charAt(start + i) - '0';
+            if (digit < 0 || digit > 9) {
+                return NO_ISBN;
+            }
+            isbn = isbn * 10 + digit;
+            checksum += (i & 1) == 0 ? digit : digit * 3;
+        }
+
+        return isValid(isbn, checksum) ? isbn : NO_ISBN;
+    }
+
+    /**
+     * Parse an ISBN-13 number from a range of ASCII bytes, such as a ZIP entry name read from a buffer.
+     *
+     * @param bytes the bytes containing the ISBN
+     * @param start start index, inclusive
+     * @param end   end index, exclusive
+     * @return the ISBN, or {@link #NO_ISBN} if the range is not exactly one valid ISBN-13 number
+     */
+    public static long parseIsbn13(byte[] bytes, int start, int end) {
+        if (end - start != ISBN_NUMBER_LENGTH) {
+            return NO_ISBN;
+        }
+
+        long isbn = 0;
+        int checksum = 0;
+        for (int i = 0; i < ISBN_NUMBER_LENGTH; i++) {
+            int digit = bytes[start + i] - '0';
+            if (digit < 0 || digit > 9) {
+                return NO_ISBN;
+            }
+            isbn = isbn * 10 + digit;
+            checksum += (i & 1) == 0 ? digit : digit * 3;
+        }
+
+        return isValid(isbn, checksum) ? isbn : NO_ISBN;
+    }
+
+    /**
+     * Parse the ISBN-13 number that a filename starts with, leading whitespace is ignored.
+     *
+     * @param filename the filename, such as 9780203093474.zip or 9780203093474_Law_Chapter 1 - 40.zip
+     * @return the ISBN, or {@link #NO_ISBN} if the filename does not start with a valid ISBN-13 number
+     */
+    public static long parseIsbn13FromFilename(CharSequence filename) {
+        if (filename == null) {
+            return NO_ISBN;
+        }
+
+        int start = 0;
+        int length = filename.length();
+        while (start < length && filename.charAt(start) <= ' ') {
+            start++;
+        }
+        if (length - start < ISBN_NUMBER_LENGTH) {
+            return NO_ISBN;
+        }
+
+        return parseIsbn13(filename, start, start + ISBN_NUMBER_LENGTH);
+    }
+
+    /**
+     * Parse the ISBN-13 numbers that a batch of filenames start with, such as all the files in a directory.
+     *
+     * @param filenames the filenames
+     * @param isbns     array to put the ISBNs in, at the same index as the filename,
+     *                  {@link #NO_ISBN} for filenames without a valid ISBN, must be at least as long as filenames
+     * @return the number of filenames with a valid ISBN
+     */
+    public static int parseIsbn13FromFilenames(CharSequence[] filenames, long[] isbns) {
+        if (isbns.length < filenames.length) {
+            throw new IllegalArgumentException("ISBN array is shorter than filename array [" +
+                    isbns.length + " < " + filenames.length + "]");
+        }
+
+        int validIsbns = 0;
+        for (int i = 0; i < filenames.length; i++) {
+            isbns[i] = parseIsbn13FromFilename(filenames[i]);
+            if (isbns[i] != NO_ISBN) {
+                validIsbns++;
+            }
+        }
+
+        return validIsbns;
+    }
+
+    /**
+     * Check prefix and check digit.
+     *
+     * @param isbn     the 13 digits as a number
+     * @param checksum the weighted sum of the 13 digits
+     * @return true if valid ISBN-13
+     */
+    private static boolean isValid(long isbn, int checksum) {
+        long prefix = isbn / PREFIX_DIVISOR;
+
+        return (prefix == 978 || prefix == 979) && checksum % 10 == 0;
+    }
+}